@@ -0,0 +1,77 @@
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JVM stand-in for the Android class of the same name, backed by {@link java.util.Base64}.
+ *
+ * Supports the flags the plugin uses: {@link #DEFAULT} output is wrapped at 76 characters and
+ * ends with a newline, like on Android.
+ */
+public class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private static final byte[] LF = {'\n'};
+    private static final byte[] CR_LF = {'\r', '\n'};
+
+    private Base64() {
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        if ((flags & URL_SAFE) != 0) {
+            return java.util.Base64.getUrlDecoder().decode(stripLineBreaks(input));
+        }
+        return java.util.Base64.getMimeDecoder().decode(input);
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder;
+        boolean wrap = (flags & NO_WRAP) == 0;
+        if ((flags & URL_SAFE) != 0) {
+            encoder = java.util.Base64.getUrlEncoder();
+        } else if (wrap) {
+            encoder = java.util.Base64.getMimeEncoder(76, (flags & CRLF) != 0 ? CR_LF : LF);
+        } else {
+            encoder = java.util.Base64.getEncoder();
+        }
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        byte[] encoded = encoder.encode(input);
+        if (!wrap || encoded.length == 0) {
+            return encoded;
+        }
+        byte[] lineEnd = (flags & CRLF) != 0 ? CR_LF : LF;
+        byte[] terminated = new byte[encoded.length + lineEnd.length];
+        System.arraycopy(encoded, 0, terminated, 0, encoded.length);
+        System.arraycopy(lineEnd, 0, terminated, encoded.length, lineEnd.length);
+        return terminated;
+    }
+
+    private static byte[] stripLineBreaks(byte[] input) {
+        int length = 0;
+        byte[] stripped = new byte[input.length];
+        for (byte b : input) {
+            if (b != '\n' && b != '\r') {
+                stripped[length++] = b;
+            }
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(stripped, 0, result, 0, length);
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package com.cordova.plugin.android.fingerprintauth.benchmark;
+
+import com.cordova.plugin.android.fingerprintauth.FingerprintStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Benchmarks the storage and crypto work behind save, verify and has, and key creation, for
+ * different value sizes and numbers of stored entries, with and without compressing the values.
+ *
+ * Each operation goes through the same {@link FingerprintStore} calls as the plugin, including
+ * the key lookup it does for every cipher initialization. The dialog and the sensor are not part
+ * of it. Delete and move are in {@link FingerprintStoreRemovalBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FingerprintStoreBenchmark {
+
+    @Param({"32", "1024", "16384"})
+    public int valueSize;
+
+    @Param({"1", "100", "1000"})
+    public int storeSize;
+
+    @Param({"false", "true"})
+    public boolean compress;
+
+    private StoreFixture mFixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mFixture = new StoreFixture(valueSize, storeSize, compress);
+    }
+
+    @Benchmark
+    public boolean save() throws Exception {
+        return mFixture.save(StoreFixture.KEY);
+    }
+
+    @Benchmark
+    public String verifyDecrypt() throws Exception {
+        SecretKey secretKey = FingerprintStore.getSecretKey(mFixture.keyStore, StoreFixture.CLIENT_ID);
+        Cipher cipher = mFixture.cipher;
+        FingerprintStore.Entry entry = mFixture.store.get(StoreFixture.KEY);
+        mFixture.store.initDecrypt(cipher, secretKey, entry);
+        byte[] decrypted = cipher.doFinal(entry.cipherText);
+        return new String(entry.compressed ? FingerprintStore.decompress(decrypted) : decrypted);
+    }
+
+    @Benchmark
+    public boolean hasHit() {
+        return mFixture.store.has(StoreFixture.KEY);
+    }
+
+    @Benchmark
+    public boolean hasMiss() {
+        return mFixture.store.has(StoreFixture.MISSING_KEY);
+    }
+
+    @Benchmark
+    public SecretKey createKey() throws Exception {
+        String alias = StoreFixture.CLIENT_ID + "Bench";
+        FingerprintStore.createKey(mFixture.keyStore, mFixture.keyGenerator,
+                new SoftwareKeyStoreProvider.AliasSpec(alias, 256));
+        return FingerprintStore.getSecretKey(mFixture.keyStore, alias);
+    }
+}
@@ -0,0 +1,69 @@
+package com.cordova.plugin.android.fingerprintauth.benchmark;
+
+import android.util.Base64;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks delete and move. Both remove the entry they work on, so it is put back before every
+ * invocation, outside of the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FingerprintStoreRemovalBenchmark {
+
+    @Param({"32", "1024", "16384"})
+    public int valueSize;
+
+    @Param({"1", "100", "1000"})
+    public int storeSize;
+
+    private StoreFixture mFixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mFixture = new StoreFixture(valueSize, storeSize, false);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreEntries() {
+        String key = StoreFixture.KEY;
+        if (!mFixture.store.has(key)) {
+            mFixture.store.put(key, mFixture.cipherText, mFixture.iv, false, false, null, 0,
+                    true);
+        }
+        if (!mFixture.oldSharedPref.contains("fing" + key)) {
+            mFixture.oldSharedPref.edit()
+                    .putString("fing" + key, Base64.encodeToString(mFixture.cipherText, Base64.DEFAULT))
+                    .putString("fing_iv" + key, Base64.encodeToString(mFixture.iv, Base64.DEFAULT))
+                    .commit();
+        }
+    }
+
+    @Benchmark
+    public boolean delete() {
+        return mFixture.store.delete(StoreFixture.KEY);
+    }
+
+    @Benchmark
+    public boolean move() {
+        return mFixture.store.moveFrom(mFixture.oldSharedPref, StoreFixture.KEY);
+    }
+}
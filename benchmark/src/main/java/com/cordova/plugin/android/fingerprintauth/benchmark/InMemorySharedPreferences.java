@@ -0,0 +1,202 @@
+package com.cordova.plugin.android.fingerprintauth.benchmark;
+
+import android.content.SharedPreferences;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory {@link SharedPreferences} for the benchmarks.
+ *
+ * Like the Android implementation it keeps the whole map in memory behind a lock, and every
+ * commit or apply serializes the whole map to XML, so the cost of a write grows with the size of
+ * the store the same way the full-file rewrite does on a device. The XML is kept in memory
+ * instead of being written to disk, and apply writes synchronously.
+ */
+public class InMemorySharedPreferences implements SharedPreferences {
+
+    private final Map<String, Object> mMap = new HashMap<String, Object>();
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> mListeners =
+            new CopyOnWriteArrayList<OnSharedPreferenceChangeListener>();
+    private volatile byte[] mLastWritten = new byte[0];
+
+    /**
+     * @return the size in bytes of the XML produced by the last write
+     */
+    public int getWrittenSize() {
+        return mLastWritten.length;
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<String, Object>(mMap);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        String value = (String) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> values = (Set<String>) mMap.get(key);
+        return values != null ? values : defValues;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Integer value = (Integer) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Long value = (Long) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        Float value = (Float) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mMap.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void writeToMemory() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (Map.Entry<String, Object> entry : mMap.entrySet()) {
+                writer.write("    <string name=\"");
+                writer.write(entry.getKey());
+                writer.write("\">");
+                writer.write(String.valueOf(entry.getValue()));
+                writer.write("</string>\n");
+            }
+            writer.write("</map>\n");
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mLastWritten = out.toByteArray();
+    }
+
+    private class EditorImpl implements Editor {
+
+        private final Map<String, Object> mModified = new HashMap<String, Object>();
+        private boolean mClear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            mModified.put(key, values == null ? null : new HashSet<String>(values));
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            // Like on Android, a removal is recorded as a modification to null.
+            mModified.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (InMemorySharedPreferences.this) {
+                if (mClear) {
+                    mMap.clear();
+                }
+                for (Map.Entry<String, Object> entry : mModified.entrySet()) {
+                    if (entry.getValue() == null) {
+                        mMap.remove(entry.getKey());
+                    } else {
+                        mMap.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                writeToMemory();
+            }
+            for (OnSharedPreferenceChangeListener listener : mListeners) {
+                for (String key : mModified.keySet()) {
+                    listener.onSharedPreferenceChanged(InMemorySharedPreferences.this, key);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
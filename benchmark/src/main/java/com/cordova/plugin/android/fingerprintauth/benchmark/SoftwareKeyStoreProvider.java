@@ -0,0 +1,213 @@
+package com.cordova.plugin.android.fingerprintauth.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyGeneratorSpi;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Software JCA provider standing in for "AndroidKeyStore" in the benchmarks.
+ *
+ * Like the Android Key Store, its KeyGenerator stores the generated key under the alias named by
+ * the parameter spec (here an {@link AliasSpec} instead of a KeyGenParameterSpec), and its
+ * KeyStore needs {@code load(null)} and hands the keys out by alias. Keys are plain AES keys in
+ * memory, so the numbers exclude the secure hardware round trip of a device.
+ */
+public class SoftwareKeyStoreProvider extends Provider {
+
+    public static final String NAME = "AndroidKeyStore";
+
+    private static final Map<String, Entry> sEntries = new ConcurrentHashMap<String, Entry>();
+
+    public SoftwareKeyStoreProvider() {
+        super(NAME, 1.0, "Software stand-in for the Android Key Store");
+        putService(new Service(this, "KeyStore", NAME, SoftwareKeyStoreSpi.class.getName(),
+                null, null) {
+            @Override
+            public Object newInstance(Object constructorParameter) {
+                return new SoftwareKeyStoreSpi();
+            }
+        });
+        putService(new Service(this, "KeyGenerator", "AES",
+                SoftwareKeyGeneratorSpi.class.getName(), null, null) {
+            @Override
+            public Object newInstance(Object constructorParameter) {
+                return new SoftwareKeyGeneratorSpi();
+            }
+        });
+    }
+
+    /**
+     * Registers the provider once per JVM.
+     */
+    public static synchronized void install() {
+        if (Security.getProvider(NAME) == null) {
+            Security.addProvider(new SoftwareKeyStoreProvider());
+        }
+    }
+
+    /**
+     * Parameters of the stand-in KeyGenerator: the alias to store the key under.
+     */
+    public static class AliasSpec implements AlgorithmParameterSpec {
+
+        final String alias;
+        final int keySize;
+
+        public AliasSpec(String alias, int keySize) {
+            this.alias = alias;
+            this.keySize = keySize;
+        }
+    }
+
+    private static class Entry {
+
+        final Key key;
+        final Date created = new Date();
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    public static class SoftwareKeyGeneratorSpi extends KeyGeneratorSpi {
+
+        private AliasSpec mSpec;
+        private SecureRandom mRandom = new SecureRandom();
+
+        @Override
+        protected void engineInit(SecureRandom random) {
+            throw new UnsupportedOperationException("An AliasSpec is required");
+        }
+
+        @Override
+        protected void engineInit(AlgorithmParameterSpec params, SecureRandom random)
+                throws InvalidAlgorithmParameterException {
+            if (!(params instanceof AliasSpec)) {
+                throw new InvalidAlgorithmParameterException("An AliasSpec is required");
+            }
+            mSpec = (AliasSpec) params;
+            if (random != null) {
+                mRandom = random;
+            }
+        }
+
+        @Override
+        protected void engineInit(int keySize, SecureRandom random) {
+            throw new UnsupportedOperationException("An AliasSpec is required");
+        }
+
+        @Override
+        protected SecretKey engineGenerateKey() {
+            byte[] material = new byte[mSpec.keySize / 8];
+            mRandom.nextBytes(material);
+            SecretKey key = new SecretKeySpec(material, "AES");
+            sEntries.put(mSpec.alias, new Entry(key));
+            return key;
+        }
+    }
+
+    public static class SoftwareKeyStoreSpi extends KeyStoreSpi {
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            Entry entry = sEntries.get(alias);
+            return entry == null ? null : entry.key;
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            Entry entry = sEntries.get(alias);
+            return entry == null ? null : entry.created;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            sEntries.put(alias, new Entry(key));
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            sEntries.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            List<String> aliases = new java.util.ArrayList<String>(sEntries.keySet());
+            return Collections.enumeration(aliases);
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return sEntries.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return sEntries.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return sEntries.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) throws NoSuchAlgorithmException {
+            if (stream != null) {
+                throw new NoSuchAlgorithmException("Only load(null) is supported");
+            }
+        }
+    }
+}
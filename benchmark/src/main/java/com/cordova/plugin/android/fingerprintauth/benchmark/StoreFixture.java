@@ -0,0 +1,96 @@
+package com.cordova.plugin.android.fingerprintauth.benchmark;
+
+import android.content.SharedPreferences;
+
+import com.cordova.plugin.android.fingerprintauth.FingerprintStore;
+
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * A {@link FingerprintStore} over an in-memory store filled with a number of saved entries, set
+ * up the way the plugin does it, for the benchmarks to work on.
+ *
+ * The plugin asks for "AES/CBC/PKCS7Padding", which the JVM calls "AES/CBC/PKCS5Padding"; for
+ * AES both pad to 16 byte blocks the same way.
+ *
+ * The values are random hex digits, which compress about as well as the tokens apps save.
+ */
+class StoreFixture {
+
+    static final String CLIENT_ID = "CordovaTouchPlugin";
+    static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    static final String KEY = "benchmarkKey";
+    static final String MISSING_KEY = "missingKey";
+
+    final KeyStore keyStore;
+    final KeyGenerator keyGenerator;
+    final Cipher cipher;
+    /**
+     * The preference files the store opened, by name
+     */
+    final Map<String, InMemorySharedPreferences> files =
+            new HashMap<String, InMemorySharedPreferences>();
+    final InMemorySharedPreferences oldSharedPref = new InMemorySharedPreferences();
+    final FingerprintStore store = new FingerprintStore(new FingerprintStore.PreferencesOpener() {
+        @Override
+        public SharedPreferences open(String name) {
+            InMemorySharedPreferences file = files.get(name);
+            if (file == null) {
+                file = new InMemorySharedPreferences();
+                files.put(name, file);
+            }
+            return file;
+        }
+    }, "FingerSPref");
+    final boolean compress;
+    final String value;
+    final byte[] cipherText;
+    final byte[] iv;
+
+    /**
+     * @param valueSize length of the saved values
+     * @param storeSize number of saved entries, {@link #KEY} included
+     * @param compress  {@code true} to compress the values before encrypting them
+     */
+    StoreFixture(int valueSize, int storeSize, boolean compress) throws Exception {
+        this.compress = compress;
+        SoftwareKeyStoreProvider.install();
+        keyStore = KeyStore.getInstance(SoftwareKeyStoreProvider.NAME);
+        keyGenerator = KeyGenerator.getInstance("AES", SoftwareKeyStoreProvider.NAME);
+        FingerprintStore.createKey(keyStore, keyGenerator,
+                new SoftwareKeyStoreProvider.AliasSpec(CLIENT_ID, 256));
+        cipher = Cipher.getInstance(TRANSFORMATION);
+
+        char[] chars = new char[valueSize];
+        Random random = new Random(valueSize);
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.forDigit(random.nextInt(16), 16);
+        }
+        value = new String(chars);
+        for (int i = 1; i < storeSize; i++) {
+            save("filler" + i);
+        }
+        save(KEY);
+        cipherText = store.get(KEY).cipherText;
+        iv = cipher.getIV();
+    }
+
+    /**
+     * Encrypts and stores the value under the given key, like a save without authentication.
+     */
+    boolean save(String key) throws Exception {
+        SecretKey secretKey = FingerprintStore.getSecretKey(keyStore, CLIENT_ID);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+        byte[] plainText = value.getBytes();
+        byte[] compressed = compress ? FingerprintStore.compress(plainText) : null;
+        byte[] enc = cipher.doFinal(compressed != null ? compressed : plainText);
+        return store.put(key, enc, cipher.getIV(), compressed != null, false, null, 0, true);
+    }
+}
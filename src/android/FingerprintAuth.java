@@ -38,7 +38,9 @@ import org.json.JSONObject;
   }
 
   public static void onCancelled() {
-    mCallbackContext.error("Cancelled");
+    if (mCallbackContext != null) {
+      mCallbackContext.error("Cancelled");
+    }
   }
 
 
@@ -98,6 +100,35 @@ import org.json.JSONObject;
 
   }
 
+  @Override
+  public void onPause(boolean multitasking) {
+    super.onPause(multitasking);
+    if (mFingerprintAuthAux != null) {
+      mFingerprintAuthAux.onPause();
+    }
+  }
+
+  /**
+   * Called when the WebView loads another page, whose callbacks replace the ones held.
+   */
+  @Override
+  public void onReset() {
+    super.onReset();
+    if (mFingerprintAuthAux != null) {
+      mFingerprintAuthAux.onReset();
+    }
+    mCallbackContext = null;
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    if (mFingerprintAuthAux != null) {
+      mFingerprintAuthAux.onDestroy();
+    }
+    mCallbackContext = null;
+  }
+
 
   private String createErrorMessage(final String errorCode, final String errorMessage) {
     JSONObject resultJson = new JSONObject();
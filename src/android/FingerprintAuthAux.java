@@ -9,17 +9,16 @@ import android.annotation.TargetApi;
 import android.app.KeyguardManager;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.res.Configuration;
-import android.content.res.Resources;
 import android.hardware.fingerprint.FingerprintManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.security.keystore.KeyGenParameterSpec;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.security.keystore.KeyPermanentlyInvalidatedException;
 import android.security.keystore.KeyProperties;
-import android.util.Base64;
-import android.util.DisplayMetrics;
 import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
@@ -31,7 +30,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
@@ -42,7 +43,14 @@ import java.security.SecureRandom;
 import java.security.UnrecoverableEntryException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
-import java.util.Locale;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -50,18 +58,34 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
 
 
 public class FingerprintAuthAux {
 
     private static final int ERROR_CODE_LOCKED_OUT = 7;
+    private static final int ERROR_CODE_LOCKED_OUT_PERMANENT = 9;
     private static final int ERROR_CODE_OPERATION_ALREADY_IN_PROGRESS = 5;
 
     public static final String TAG = "FingerprintAuth";
     private static final String DIALOG_FRAGMENT_TAG = "FpAuthDialog";
     private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
     private static final String SHARED_PREFS_NAME = "FingerSPref";
+    /**
+     * config.xml preferences selecting the simulated sensor: its script, and the delay of the
+     * steps that do not give one
+     */
+    private static final String SIMULATED_SENSOR_PREFERENCE = "TouchIDSimulatedSensor";
+    private static final String SIMULATED_SENSOR_DELAY_PREFERENCE = "TouchIDSimulatedSensorDelay";
+    private static final int DEFAULT_SIMULATED_SENSOR_DELAY_MILLIS = 500;
+    /**
+     * config.xml preference letting other processes of the app use the storage at the same time
+     */
+    private static final String MULTI_PROCESS_PREFERENCE = "TouchIDMultiProcess";
+    /**
+     * Appended to the key alias and the storage name with the simulated sensor, so that its
+     * unprotected key and its entries never mix with the real ones
+     */
+    private static final String SIMULATED_SUFFIX = "Simulated";
 
     // Plugin response codes and messages
     private static final String OS = "OS";
@@ -84,39 +108,89 @@ public class FingerprintAuthAux {
     private static final String HAS = "has";
     private static final String DELETE = "delete";
     private static final String MOVE = "move";
+    private static final String PREPARE_VERIFY = "prepareVerify";
+    private static final String GET_TRACE = "getTrace";
+    private static final String SET_TRACE_ENABLED = "setTraceEnabled";
+    private static final String GET_METRICS = "getMetrics";
+    private static final String RESET_METRICS = "resetMetrics";
+    private static final String CANCEL = "cancel";
+    private static final String PROBE_SECURITY_TIERS = "probeSecurityTiers";
+    private static final String SET_KEY_GROUP_TIER = "setKeyGroupTier";
+    private static final String GET_KEY_GROUP_INFO = "getKeyGroupInfo";
+    private static final String SUBSCRIBE_EVENTS = "subscribeEvents";
+    private static final String UNSUBSCRIBE_EVENTS = "unsubscribeEvents";
+    private static final String SET_SIMULATED_SENSOR = "setSimulatedSensor";
+    private static final String RUN_LOAD_TEST = "runLoadTest";
+    private static final String ROTATE_KEY = "rotateKey";
+    private static final String DELETE_MANY = "deleteMany";
+    private static final String DELETE_BY_PREFIX = "deleteByPrefix";
+    private static final String EXPORT_STORE = "exportStore";
+    private static final String IMPORT_STORE = "importStore";
     private static final String BIOMETRIC_TYPE = "biometricType";
+    private static final String TRANSACT = "transact";
+    private static final String READ_ALL = "readAll";
 
     /**
      * Alias for our key in the Android Key Store
      */
     private final static String CLIENT_ID = "CordovaTouchPlugin";
+    /**
+     * Alias of the key in use, CLIENT_ID unless the simulated sensor is selected
+     */
+    private static String mKeyAlias = CLIENT_ID;
     private static final String RESULT_TAG = "result";
+    /**
+     * How long a cipher warmed up by prepareVerify stays usable
+     */
+    private static final long PREPARED_CIPHER_TTL_MILLIS = 30000;
     public static String packageName;
-    public static KeyStore mKeyStore;
-    public static KeyGenerator mKeyGenerator;
-    public static Cipher mCipher;
+    KeyStore mKeyStore;
+    KeyGenerator mKeyGenerator;
     public static CallbackContext mCallbackContext;
     public static PluginResult mPluginResult;
-    /**
-     * Used to encrypt token
-     */
-    private static String mKeyID;
     KeyguardManager mKeyguardManager;
     FingerprintAuthenticationDialogFragment mFragment;
-    private FingerprintManager mFingerPrintManager;
-    private int mCurrentMode;
-    private String mLangCode = "en_US";
-
-    private FingerprintAuth mParentCordovaPlugin;
+    private FingerprintSensor mSensor;
+    private FingerprintLockout mLockout;
+    private FingerprintStore mStore;
+    private KeyGroups mKeyGroups;
     /**
-     * String to encrypt
+     * The prompt currently showing the dialog, and the prompts waiting for it
      */
-    private String mToEncrypt;
-
+    private PendingPrompt mActivePrompt;
+    private final ArrayDeque<PendingPrompt> mQueuedPrompts = new ArrayDeque<PendingPrompt>();
+    /**
+     * Transactions being written without a prompt. Saves without one are written on the calling
+     * thread, so none is running when another call comes in from the bridge.
+     */
+    private final AtomicInteger mWritesInFlight = new AtomicInteger();
+    private final AtomicBoolean mLoadTestRunning = new AtomicBoolean();
+    /**
+     * Runs the prompt timeouts, and the timers of the sweeper and the key rotations
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Token the prompt timeouts are posted with, so they can be removed without the other timers
+     */
+    private final Object mPromptTimeoutToken = new Object();
     /**
-     * Require the user to authenticate with a fingerprint to authorize every use of the key
+     * Cipher initialized ahead of time by prepareVerify, for the key in mPreparedKeyID
      */
-    private boolean setUserAuthenticationRequired = false;
+    private Cipher mPreparedCipher;
+    private String mPreparedKeyID;
+    private FingerprintStore.Entry mPreparedEntry;
+    private long mPreparedAt;
+    private FingerprintSweeper mSweeper;
+    private KeyRotation mKeyRotation;
+    private FingerprintBackup mBackup;
+    private FingerprintBulkReader mBulkReader;
+    private String mLangCode = "en_US";
+    /**
+     * Resolves the dialog strings in mLangCode, or {@code null} to use the ones of the activity
+     */
+    private volatile Context mLocalizedContext;
+
+    private FingerprintAuth mParentCordovaPlugin;
 
     /**
      * Constructor.
@@ -128,27 +202,22 @@ public class FingerprintAuthAux {
     /**
      * Creates a symmetric key in the Android Key Store which can only be used after the user has
      * authenticated with fingerprint.
+     *
+     * @param tier the tier to create the key in; StrongBox falls back to the TEE where missing
+     * @return the tier the key was created in, or {@code null} if it could not be created
      */
     @TargetApi(Build.VERSION_CODES.M)
-    public static boolean createKey(final boolean setUserAuthenticationRequired) {
+    public SecurityTier createKey(String alias, final boolean setUserAuthenticationRequired,
+                                  SecurityTier tier) {
         String errorMessage = "";
         String createKeyExceptionErrorPrefix = "Failed to create key: ";
-        boolean isKeyCreated = false;
+        SecurityTier createdTier = null;
         // The enrolling flow for fingerprint. This is where you ask the user to set up fingerprint
         // for your flow. Use of keys is necessary if you need to know if the set of
         // enrolled fingerprints has changed.
         try {
-            mKeyStore.load(null);
-            // Set the alias of the entry in Android KeyStore where the key will appear
-            // and the constrains (purposes) in the constructor of the Builder
-            mKeyGenerator.init(new KeyGenParameterSpec.Builder(CLIENT_ID,
-                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT).setBlockModes(
-                    KeyProperties.BLOCK_MODE_CBC)
-                    .setUserAuthenticationRequired(setUserAuthenticationRequired)
-                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_PKCS7)
-                    .build());
-            mKeyGenerator.generateKey();
-            isKeyCreated = true;
+            createdTier = tier.createKey(mKeyStore, mKeyGenerator, alias,
+                    setUserAuthenticationRequired);
         } catch (NoSuchAlgorithmException e) {
             errorMessage = createKeyExceptionErrorPrefix + "NoSuchAlgorithmException";
         } catch (InvalidAlgorithmParameterException e) {
@@ -158,19 +227,23 @@ public class FingerprintAuthAux {
         } catch (IOException e) {
             errorMessage = createKeyExceptionErrorPrefix + "IOException";
         }
-        if (!isKeyCreated) {
+        if (createdTier == null) {
             Log.e(TAG, errorMessage);
             setPluginResultError(errorMessage);
         }
-        return isKeyCreated;
+        return createdTier;
     }
 
     public static void onCancelled() {
-        mCallbackContext.error("Cancelled");
+        if (mCallbackContext != null) {
+            mCallbackContext.error("Cancelled");
+        }
     }
 
     public static boolean setPluginResultError(String errorMessage) {
-        mCallbackContext.error(errorMessage);
+        if (mCallbackContext != null) {
+            mCallbackContext.error(errorMessage);
+        }
         mPluginResult = new PluginResult(PluginResult.Status.ERROR);
         return false;
     }
@@ -194,8 +267,56 @@ public class FingerprintAuthAux {
         }
 
         mKeyguardManager = cordova.getActivity().getSystemService(KeyguardManager.class);
-        mFingerPrintManager =
-                cordova.getActivity().getApplicationContext().getSystemService(FingerprintManager.class);
+        String sharedPrefsName = SHARED_PREFS_NAME;
+        String simulatedSensorScript = webView.getPreferences()
+                .getString(SIMULATED_SENSOR_PREFERENCE, "");
+        boolean debuggable = (cordova.getActivity().getApplicationInfo().flags
+                & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        if (simulatedSensorScript.length() > 0 && !debuggable) {
+            // It would let anyone pass the prompt, so a release build uses the real sensor.
+            Log.e(TAG, "Ignoring " + SIMULATED_SENSOR_PREFERENCE + " in a release build");
+            simulatedSensorScript = "";
+        }
+        if (simulatedSensorScript.length() > 0) {
+            Log.w(TAG, "Using the simulated fingerprint sensor");
+            mSensor = new SimulatedFingerprintSensor(simulatedSensorScript, webView.getPreferences()
+                    .getInteger(SIMULATED_SENSOR_DELAY_PREFERENCE, DEFAULT_SIMULATED_SENSOR_DELAY_MILLIS));
+            mKeyAlias = CLIENT_ID + SIMULATED_SUFFIX;
+            sharedPrefsName = SHARED_PREFS_NAME + SIMULATED_SUFFIX;
+        } else {
+            mSensor = new SystemFingerprintSensor(cordova.getActivity().getApplicationContext()
+                    .getSystemService(FingerprintManager.class));
+            mKeyAlias = CLIENT_ID;
+        }
+        mLockout = new FingerprintLockout(cordova.getActivity().getApplicationContext());
+        mKeyGroups = new KeyGroups(cordova.getActivity().getApplicationContext());
+        final Context appContext = cordova.getActivity().getApplicationContext();
+        FingerprintStoreSync storeSync = null;
+        if (webView.getPreferences().getBoolean(MULTI_PROCESS_PREFERENCE, false)) {
+            try {
+                storeSync = new FingerprintStoreSync(
+                        new File(appContext.getFilesDir(), sharedPrefsName + ".sync"));
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot share the store with other processes: " + e.getMessage());
+            }
+        }
+        // Other processes write the same files, so they have to be loaded again once changed.
+        @SuppressWarnings("deprecation")
+        final int prefsMode = storeSync != null ? Context.MODE_MULTI_PROCESS : Context.MODE_PRIVATE;
+        mStore = new FingerprintStore(new FingerprintStore.PreferencesOpener() {
+            public SharedPreferences open(String name) {
+                return appContext.getSharedPreferences(name, prefsMode);
+            }
+        }, sharedPrefsName, storeSync);
+        mStore.setChangeListener(new FingerprintStore.ChangeListener() {
+            public void onEntriesChanged(Set<String> keys) {
+                for (String key : keys) {
+                    discardPreparedCipher(key);
+                }
+            }
+        });
+        mSweeper = new FingerprintSweeper(mStore, mHandler, cordova.getThreadPool());
+        mSweeper.start();
 
         try {
             mKeyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
@@ -208,8 +329,19 @@ public class FingerprintAuthAux {
             throw new RuntimeException("Failed to get an instance of KeyStore", e);
         }
 
+        // Created once the key store is loaded, as they keep a reference to it.
+        mKeyRotation = new KeyRotation(this, mStore, mKeyGroups, mKeyStore, mKeyAlias, mHandler,
+                cordova.getThreadPool());
+        mBackup = new FingerprintBackup(mStore, mKeyGroups, mKeyStore, mKeyAlias,
+                appContext.getContentResolver());
+        mBulkReader = new FingerprintBulkReader(mStore, mKeyStore, mKeyAlias,
+                cordova.getThreadPool());
+        mKeyRotation.resume();
+    }
+
+    static Cipher createCipher() {
         try {
-            mCipher = Cipher.getInstance(KeyProperties.KEY_ALGORITHM_AES
+            return Cipher.getInstance(KeyProperties.KEY_ALGORITHM_AES
                     + "/"
                     + KeyProperties.BLOCK_MODE_CBC
                     + "/"
@@ -221,6 +353,93 @@ public class FingerprintAuthAux {
         }
     }
 
+    /**
+     * Compresses a value to save, if asked to, and records the sizes.
+     *
+     * @param compress whether to compress
+     * @return the compressed value, or {@code null} to save it as it is
+     */
+    static byte[] compressValue(byte[] plainText, boolean compress) {
+        if (!compress) {
+            return null;
+        }
+        long compressionStart = System.nanoTime();
+        byte[] compressed = FingerprintStore.compress(plainText);
+        FingerprintMetrics.recordStage(FingerprintMetrics.Stage.COMPRESSION, compressionStart);
+        FingerprintMetrics.recordCompression(plainText.length,
+                compressed != null ? compressed.length : plainText.length);
+        return compressed;
+    }
+
+    /**
+     * @return the saved value of the entry, given the decrypted one
+     */
+    static byte[] decompressValue(FingerprintStore.Entry entry, byte[] decrypted)
+            throws DataFormatException {
+        if (!entry.compressed) {
+            return decrypted;
+        }
+        long compressionStart = System.nanoTime();
+        byte[] value = FingerprintStore.decompress(decrypted);
+        FingerprintMetrics.recordStage(FingerprintMetrics.Stage.COMPRESSION, compressionStart);
+        return value;
+    }
+
+    /**
+     * Overwrites a buffer that held a secret, so it does not linger in the heap until collected.
+     */
+    static void zero(byte[] buffer) {
+        if (buffer != null) {
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    /**
+     * Called when the app goes to the background. Drops the cipher prepared by prepareVerify,
+     * which is bound to an initialized key. A prompt that is showing stays, and listens again when
+     * the app comes back.
+     */
+    public void onPause() {
+        discardPreparedCipher(null);
+    }
+
+    /**
+     * Called when the WebView navigates or reloads. The callbacks of the old page will never be
+     * answered, so its prompts are ended, its event subscription dropped and the callbacks let go.
+     */
+    public void onReset() {
+        abandonAllPrompts(FingerprintError.FingerprintCancelledByApp);
+        FingerprintEvents.unsubscribe();
+        discardPreparedCipher(null);
+        mCallbackContext = null;
+        // The last result may hold a password.
+        mPluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+    }
+
+    /**
+     * Called when the activity is destroyed. Besides what {@link #onReset()} does, removes the
+     * prompt timeouts left and releases the dialog, which is retained and would otherwise keep
+     * this plugin and its cipher. The timers of the sweeper and the key rotations stay, so the
+     * work they have pending still gets done.
+     */
+    public void onDestroy() {
+        onReset();
+        mHandler.removeCallbacksAndMessages(mPromptTimeoutToken);
+        if (mFragment != null) {
+            mFragment.release();
+            mFragment = null;
+        }
+    }
+
+    /**
+     * Called by the dialog once it is gone for good, rather than kept for a configuration change.
+     */
+    void onDialogDestroyed(FingerprintAuthenticationDialogFragment fragment) {
+        if (mFragment == fragment) {
+            mFragment = null;
+        }
+    }
+
     /**
      * Executes the request and returns PluginResult.
      *
@@ -232,7 +451,11 @@ public class FingerprintAuthAux {
     public boolean execute(final String action, JSONArray args, CallbackContext callbackContext, CordovaInterface cordova)
             throws JSONException {
         mCallbackContext = callbackContext;
-        Log.v(TAG, "FingerprintAuth action: " + action);
+        final long startNanos = System.nanoTime();
+        FingerprintTrace.mark(FingerprintTrace.Span.BRIDGE_ENTRY, action);
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "FingerprintAuth action: " + action);
+        }
         if (android.os.Build.VERSION.SDK_INT < 23) {
             LOG.e(TAG, "minimum SDK version 23 required");
             sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
@@ -241,63 +464,99 @@ public class FingerprintAuthAux {
         if (action.equals(SAVE)) {
             final String key = args.getString(0);
             final String password = args.getString(1);
-            setUserAuthenticationRequired = args.get(2).equals(null) || args.getBoolean(2);
+            final boolean userAuthenticationRequired = args.get(2).equals(null) || args.getBoolean(2);
+            final String keyGroup = args.isNull(3) ? "" : args.getString(3);
+            final String alias = mKeyGroups.getCurrentAlias(KeyGroups.aliasOf(mKeyAlias, keyGroup));
+            // Entries of the default key keep the layout of older versions.
+            final String entryAlias = alias.equals(mKeyAlias) ? null : alias;
+            final long ttlMillis = args.optLong(4, 0);
+            final long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+            final boolean compress = !args.isNull(5) && args.getBoolean(5);
 
             if (isFingerprintAuthAvailable()) {
-                SecretKey secretKey = getSecretKey();
+                if (userAuthenticationRequired && sendErrorIfLockedOut(callbackContext)) {
+                    FingerprintMetrics.recordAction(FingerprintMetrics.Action.SAVE, startNanos, false);
+                    return true;
+                }
+                SecretKey secretKey = getSecretKey(alias);
 
                 if (secretKey == null) {
-                    if (createKey(setUserAuthenticationRequired)) {
-                        getSecretKey();
+                    // The simulated sensor cannot authorize the key.
+                    SecurityTier tier = createKey(alias,
+                            userAuthenticationRequired && !isSimulated(),
+                            mKeyGroups.getTier(keyGroup));
+                    if (tier != null) {
+                        mKeyGroups.setCreatedTier(alias, tier);
                     }
                 }
-                mKeyID = key;
-                mToEncrypt = password;
-
-                if (setUserAuthenticationRequired) {
-                    showFingerprintDialog(Cipher.ENCRYPT_MODE, null, cordova);
+                if (userAuthenticationRequired) {
+                    requestPrompt(Cipher.ENCRYPT_MODE, key, null, password, compress, entryAlias,
+                            expiresAt, 0, callbackContext, cordova);
                 } else {
-                    SharedPreferences sharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-                    SharedPreferences.Editor editor = sharedPref.edit();
-                    InitEncryptionResult result = initCipher(Cipher.ENCRYPT_MODE, cordova);
+                    // Its own cipher, as a prompt may be initializing one on the thread pool.
+                    Cipher cipher = createCipher();
+                    InitEncryptionResult result = initCipher(cipher, Cipher.ENCRYPT_MODE, null,
+                            alias, cordova);
                     if (result == InitEncryptionResult.Success) {
-                        byte[] enc = new byte[0];
+                        PluginResult pluginResult;
+                        byte[] plainText = password.getBytes();
+                        byte[] compressed = null;
                         try {
-                            enc = mCipher.doFinal(mToEncrypt.getBytes());
+                            compressed = compressValue(plainText, compress);
+                            long cryptoStart = System.nanoTime();
+                            byte[] enc = cipher.doFinal(compressed != null ? compressed : plainText);
+                            FingerprintMetrics.recordStage(FingerprintMetrics.Stage.CRYPTO, cryptoStart);
 
-                            editor.putString("fing" + mKeyID, Base64.encodeToString(enc, Base64.DEFAULT));
-                            editor.putString("fing_iv" + mKeyID,
-                                    Base64.encodeToString(mCipher.getIV(), Base64.DEFAULT));
-
-                            editor.apply();
-                            mPluginResult = new PluginResult(PluginResult.Status.OK);
-                            mCallbackContext.sendPluginResult(mPluginResult);
+                            long storageStart = System.nanoTime();
+                            mStore.put(key, enc, cipher.getIV(), compressed != null, false,
+                                    entryAlias, expiresAt, false);
+                            if (expiresAt > 0) {
+                                mSweeper.schedule(expiresAt);
+                            }
+                            FingerprintTrace.end(FingerprintTrace.Span.STORAGE_WRITE, storageStart);
+                            FingerprintMetrics.recordStage(FingerprintMetrics.Stage.STORAGE, storageStart);
+                            discardPreparedCipher(key);
+                            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+                            FingerprintMetrics.recordAction(FingerprintMetrics.Action.SAVE, startNanos, true);
                             return true;
                         } catch (IllegalBlockSizeException e) {
-                            mPluginResult =
+                            pluginResult =
                                     new PluginResult(PluginResult.Status.ERROR, "Error string is to big.");
                         } catch (BadPaddingException e) {
-                            mPluginResult = new PluginResult(PluginResult.Status.ERROR, "Error Bad Padding.");
+                            pluginResult = new PluginResult(PluginResult.Status.ERROR, "Error Bad Padding.");
+                        } finally {
+                            zero(plainText);
+                            zero(compressed);
                         }
-                        mCallbackContext.sendPluginResult(mPluginResult);
+                        callbackContext.sendPluginResult(pluginResult);
                     }else{
                         sendError(FingerprintError.FingerprintGenericError,callbackContext);
                     }
+                    FingerprintMetrics.recordAction(FingerprintMetrics.Action.SAVE, startNanos, false);
                 }
             } else {
                 sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
+                FingerprintMetrics.recordAction(FingerprintMetrics.Action.SAVE, startNanos, false);
             }
             return true;
         } else if (action.equals(VERIFY)) {
             final String key = args.getString(0);
             final String message = args.getString(1);
+            final long timeoutMillis = args.optLong(2, 0);
             if (isHardwareDetected()) {
                 if (hasEnrolledFingerprints()) {
-                    SecretKey secretKey = getSecretKey();
-                    if (secretKey != null) {
-                        mKeyID = key;
-                        showFingerprintDialog(Cipher.DECRYPT_MODE, message, cordova);
+                    if (sendErrorIfLockedOut(callbackContext)) {
+                        FingerprintMetrics.recordAction(FingerprintMetrics.Action.VERIFY, startNanos, false);
+                        return true;
+                    }
+                    // Missing and expired entries are reported without a prompt, most missing
+                    // ones by the presence filter alone.
+                    if (mStore.has(key)
+                            && (hasPreparedCipher(key) || getSecretKey(getEntryKeyAlias(key)) != null)) {
+                        requestPrompt(Cipher.DECRYPT_MODE, key, message, null, false, null, 0,
+                                timeoutMillis, callbackContext, cordova);
                         mPluginResult.setKeepCallback(true);
+                        return true;
                     } else {
                         sendError(FingerprintError.FingerprintSecretKeyNotFound,callbackContext);
                     }
@@ -307,10 +566,14 @@ public class FingerprintAuthAux {
             } else {
                sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
             }
+            FingerprintMetrics.recordAction(FingerprintMetrics.Action.VERIFY, startNanos, false);
             return true;
         } else if (action.equals(IS_AVAILABLE)) {
             if (isHardwareDetected()) {
                 if (hasEnrolledFingerprints()) {
+                    if (sendErrorIfLockedOut(callbackContext)) {
+                        return true;
+                    }
                     mPluginResult = new PluginResult(PluginResult.Status.OK);
                 } else {
 
@@ -333,60 +596,357 @@ public class FingerprintAuthAux {
             return true;
         } else if (action.equals(SET_LOCALE)) {            // Set language
             mLangCode = args.getString(0);
-            Resources res = cordova.getActivity().getResources();
-
-            // Change locale settings in the app.
-            DisplayMetrics dm = res.getDisplayMetrics();
-
-            Configuration conf = res.getConfiguration();
-            conf.locale = new Locale(mLangCode.toLowerCase());
-
-            res.updateConfiguration(conf, dm);
+            // Looked up once per language, and used only by the dialog.
+            mLocalizedContext = LocalizedContexts.get(
+                    cordova.getActivity().getApplicationContext(), mLangCode);
+            mPluginResult = new PluginResult(PluginResult.Status.OK);
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(PREPARE_VERIFY)) {
+            final String key = args.getString(0);
+            final CallbackContext prepareCallbackContext = callbackContext;
+            if (!isFingerprintAuthAvailable()) {
+                sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
+                return true;
+            }
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    prepareCipher(key, prepareCallbackContext);
+                }
+            });
             return true;
         } else if (action.equals(HAS)) { //if has key
             String key = args.getString(0);
-            SharedPreferences sharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-            String enc = sharedPref.getString("fing" + key, "");
-            JSONObject result;
-            //if (enc.equals("")) new PluginResult(PluginResult.Status.ERROR);
-            mPluginResult = new PluginResult(PluginResult.Status.OK,createHasKeyResult(!enc.equals("")));
+            mPluginResult = new PluginResult(PluginResult.Status.OK,createHasKeyResult(mStore.has(key)));
             mCallbackContext.sendPluginResult(mPluginResult);
+            FingerprintMetrics.recordAction(FingerprintMetrics.Action.HAS, startNanos, true);
             return true;
         } else if (action.equals(DELETE)) { //delete key
             final String key = args.getString(0);
-            SharedPreferences sharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = sharedPref.edit();
-            editor.remove("fing" + key);
-            editor.remove("fing_iv" + key);
-            boolean removed = editor.commit();
+            long storageStart = System.nanoTime();
+            boolean removed = mStore.delete(key);
+            FingerprintTrace.end(FingerprintTrace.Span.STORAGE_WRITE, storageStart);
+            FingerprintMetrics.recordStage(FingerprintMetrics.Stage.STORAGE, storageStart);
+            discardPreparedCipher(key);
             if (removed) {
                 mPluginResult = new PluginResult(PluginResult.Status.OK);
             } else {
                 mPluginResult = new PluginResult(PluginResult.Status.ERROR);
             }
             mCallbackContext.sendPluginResult(mPluginResult);
+            FingerprintMetrics.recordAction(FingerprintMetrics.Action.DELETE, startNanos, removed);
+            return true;
+        } else if (action.equals(DELETE_MANY) || action.equals(DELETE_BY_PREFIX)) {
+            final boolean byPrefix = action.equals(DELETE_BY_PREFIX);
+            final List<String> keys = new ArrayList<String>();
+            final String prefix = byPrefix ? args.getString(0) : null;
+            if (!byPrefix) {
+                JSONArray keyArray = args.getJSONArray(0);
+                for (int i = 0; i < keyArray.length(); i++) {
+                    keys.add(keyArray.getString(i));
+                }
+            }
+            final CallbackContext deleteCallbackContext = callbackContext;
+            // A prefix has to be looked up in every shard, so both run off the bridge thread.
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    long storageStart = System.nanoTime();
+                    int removed = byPrefix ? mStore.deleteByPrefix(prefix) : mStore.deleteMany(keys);
+                    FingerprintTrace.end(FingerprintTrace.Span.STORAGE_WRITE, storageStart);
+                    FingerprintMetrics.recordStage(FingerprintMetrics.Stage.STORAGE, storageStart);
+                    if (removed != 0) {
+                        discardPreparedCipher(null);
+                    }
+                    if (removed >= 0) {
+                        deleteCallbackContext.sendPluginResult(
+                                new PluginResult(PluginResult.Status.OK, removed));
+                    } else {
+                        deleteCallbackContext.sendPluginResult(
+                                new PluginResult(PluginResult.Status.ERROR));
+                    }
+                    FingerprintMetrics.recordAction(byPrefix
+                            ? FingerprintMetrics.Action.DELETE_BY_PREFIX
+                            : FingerprintMetrics.Action.DELETE_MANY, startNanos, removed >= 0);
+                }
+            });
             return true;
         } else if (action.equals(MOVE)) { //Move shared preferences from activity to global
             String key = args.getString(0);
             String oldActivityPackageName = args.getString(1);
             //Get old shared Preferences e.g: "com.outsystems.android.WebApplicationActivity"
             SharedPreferences oldSharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(oldActivityPackageName,Context.MODE_PRIVATE);
-            String enc = oldSharedPref.getString("fing" + key, "");
-
-            if (!enc.equals("")) {
-                SharedPreferences newSharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-                SharedPreferences.Editor newEditor = newSharedPref.edit();
-                newEditor.putString("fing" + key, oldSharedPref.getString("fing" + key, ""));
-                newEditor.putString("fing_iv" + key, oldSharedPref.getString("fing_iv" + key, ""));
-                newEditor.commit();
-                SharedPreferences.Editor oldEditor = oldSharedPref.edit();
-                oldEditor.remove("fing" + key);
-                oldEditor.remove("fing_iv" + key);
-                oldEditor.commit();
+            long storageStart = System.nanoTime();
+            if (mStore.moveFrom(oldSharedPref, key)) {
+                FingerprintTrace.end(FingerprintTrace.Span.STORAGE_WRITE, storageStart);
+                FingerprintMetrics.recordStage(FingerprintMetrics.Stage.STORAGE, storageStart);
+                discardPreparedCipher(key);
+            }
+            mPluginResult = new PluginResult(PluginResult.Status.OK);
+            mCallbackContext.sendPluginResult(mPluginResult);
+            FingerprintMetrics.recordAction(FingerprintMetrics.Action.MOVE, startNanos, true);
+            return true;
+        } else if (action.equals(SET_TRACE_ENABLED)) {
+            FingerprintTrace.setEnabled(args.getBoolean(0));
+            mPluginResult = new PluginResult(PluginResult.Status.OK);
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(GET_TRACE)) {
+            mPluginResult = new PluginResult(PluginResult.Status.OK, FingerprintTrace.toJSON());
+            if (args.optBoolean(0, false)) {
+                FingerprintTrace.clear();
+            }
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(GET_METRICS)) {
+            mPluginResult = new PluginResult(PluginResult.Status.OK, FingerprintMetrics.toJSON());
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(RESET_METRICS)) {
+            FingerprintMetrics.reset();
+            mPluginResult = new PluginResult(PluginResult.Status.OK);
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(CANCEL)) {
+            int cancelled = abandonAllPrompts(FingerprintError.FingerprintCancelledByApp);
+            mPluginResult = new PluginResult(PluginResult.Status.OK, cancelled);
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(PROBE_SECURITY_TIERS)) {
+            final CallbackContext probeCallbackContext = callbackContext;
+            final Context context = cordova.getActivity().getApplicationContext();
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    probeCallbackContext.success(SecurityTierProbe.probe(context, mKeyStore,
+                            mKeyGenerator, mKeyAlias));
+                }
+            });
+            return true;
+        } else if (action.equals(SET_KEY_GROUP_TIER)) {
+            SecurityTier tier = SecurityTier.fromLabel(args.getString(1));
+            if (tier == null) {
+                mPluginResult = new PluginResult(PluginResult.Status.ERROR,
+                        "Unknown tier: " + args.getString(1));
+            } else {
+                mKeyGroups.setTier(args.getString(0), tier);
+                mPluginResult = new PluginResult(PluginResult.Status.OK);
             }
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(GET_KEY_GROUP_INFO)) {
+            mPluginResult = new PluginResult(PluginResult.Status.OK,
+                    createKeyGroupInfo(args.isNull(0) ? "" : args.getString(0)));
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(SUBSCRIBE_EVENTS)) {
+            FingerprintEvents.subscribe(callbackContext);
+            return true;
+        } else if (action.equals(UNSUBSCRIBE_EVENTS)) {
+            FingerprintEvents.unsubscribe();
             mPluginResult = new PluginResult(PluginResult.Status.OK);
             mCallbackContext.sendPluginResult(mPluginResult);
             return true;
+        } else if (action.equals(SET_SIMULATED_SENSOR)) {
+            if (!isSimulated()) {
+                sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
+                return true;
+            }
+            try {
+                ((SimulatedFingerprintSensor) mSensor).setScript(args.getString(0));
+                mPluginResult = new PluginResult(PluginResult.Status.OK);
+            } catch (IllegalArgumentException e) {
+                mPluginResult = new PluginResult(PluginResult.Status.ERROR, e.getMessage());
+            }
+            mCallbackContext.sendPluginResult(mPluginResult);
+            return true;
+        } else if (action.equals(ROTATE_KEY)) {
+            final String keyGroup = args.isNull(0) ? "" : args.getString(0);
+            final CallbackContext rotateCallbackContext = callbackContext;
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        rotateCallbackContext.sendPluginResult(new PluginResult(
+                                PluginResult.Status.OK, mKeyRotation.rotate(keyGroup)));
+                    } catch (KeyRotation.AuthenticationRequiredException e) {
+                        sendError(FingerprintError.FingerprintKeyRequiresAuthentication,
+                                rotateCallbackContext);
+                    } catch (GeneralSecurityException e) {
+                        Log.e(TAG, "Failed to rotate the key: " + e.getClass().getSimpleName());
+                        sendError(FingerprintError.FingerprintGenericError,rotateCallbackContext);
+                    }
+                }
+            });
+            return true;
+        } else if (action.equals(EXPORT_STORE)) {
+            final JSONObject options = args.getJSONObject(0);
+            final CallbackContext exportCallbackContext = callbackContext;
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    mBackup.exportStore(options, exportCallbackContext);
+                }
+            });
+            return true;
+        } else if (action.equals(IMPORT_STORE)) {
+            final JSONObject options = args.getJSONObject(0);
+            final CallbackContext importCallbackContext = callbackContext;
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    mBackup.importStore(options, importCallbackContext);
+                    discardPreparedCipher(null);
+                    // Finds the expiry times of the imported entries.
+                    mSweeper.start();
+                }
+            });
+            return true;
+        } else if (action.equals(TRANSACT)) {
+            JSONArray ops = args.getJSONArray(0);
+            final boolean userAuthenticationRequired = args.isNull(1) || args.getBoolean(1);
+            final String keyGroup = args.isNull(2) ? "" : args.getString(2);
+            final String alias = mKeyGroups.getCurrentAlias(KeyGroups.aliasOf(mKeyAlias, keyGroup));
+            final String entryAlias = alias.equals(mKeyAlias) ? null : alias;
+            boolean hasSaves = false;
+            for (int i = 0; i < ops.length(); i++) {
+                String type = ops.getJSONObject(i).getString("op");
+                if (type.equals(SAVE)) {
+                    hasSaves = true;
+                } else if (!type.equals(DELETE)) {
+                    mPluginResult = new PluginResult(PluginResult.Status.ERROR,
+                            "Unknown operation: " + type);
+                    mCallbackContext.sendPluginResult(mPluginResult);
+                    FingerprintMetrics.recordAction(FingerprintMetrics.Action.TRANSACT, startNanos, false);
+                    return true;
+                }
+            }
+            // Checked before the values are compressed and copied, which would be wasted.
+            if (hasSaves && !isFingerprintAuthAvailable()) {
+                sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
+                FingerprintMetrics.recordAction(FingerprintMetrics.Action.TRANSACT, startNanos, false);
+                return true;
+            }
+            if (hasSaves && userAuthenticationRequired && sendErrorIfLockedOut(callbackContext)) {
+                FingerprintMetrics.recordAction(FingerprintMetrics.Action.TRANSACT, startNanos, false);
+                return true;
+            }
+            final FingerprintStore.Transaction transaction =
+                    new FingerprintStore.Transaction(entryAlias, userAuthenticationRequired);
+            for (int i = 0; i < ops.length(); i++) {
+                JSONObject op = ops.getJSONObject(i);
+                if (op.getString("op").equals(SAVE)) {
+                    byte[] plainText = op.getString("value").getBytes();
+                    byte[] compressed = compressValue(plainText, op.optBoolean("compress"));
+                    long ttlMillis = op.optLong("ttlMillis", 0);
+                    if (compressed != null) {
+                        zero(plainText);
+                    }
+                    transaction.put(op.getString("key"),
+                            compressed != null ? compressed : plainText, compressed != null,
+                            ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0);
+                } else {
+                    transaction.delete(op.getString("key"));
+                }
+            }
+            final CallbackContext transactCallbackContext = callbackContext;
+            if (!hasSaves) {
+                // Deletes need no key.
+                mWritesInFlight.incrementAndGet();
+                cordova.getThreadPool().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            PluginResult result = writeTransaction(transaction, null, null);
+                            transactCallbackContext.sendPluginResult(result);
+                            FingerprintMetrics.recordAction(FingerprintMetrics.Action.TRANSACT,
+                                    startNanos,
+                                    result.getStatus() == PluginResult.Status.OK.ordinal());
+                        } finally {
+                            mWritesInFlight.decrementAndGet();
+                        }
+                    }
+                });
+                return true;
+            }
+            if (getSecretKey(alias) == null) {
+                SecurityTier tier = createKey(alias, userAuthenticationRequired && !isSimulated(),
+                        mKeyGroups.getTier(keyGroup));
+                if (tier != null) {
+                    mKeyGroups.setCreatedTier(alias, tier);
+                }
+            }
+            if (userAuthenticationRequired) {
+                // One prompt authorizes the cipher that encrypts all the values.
+                queuePrompt(new PendingPrompt(transaction, entryAlias, callbackContext),
+                        callbackContext, 0, cordova);
+                return true;
+            }
+            final CordovaInterface transactCordova = cordova;
+            mWritesInFlight.incrementAndGet();
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        Cipher cipher = createCipher();
+                        PluginResult result;
+                        InitEncryptionResult initResult = initCipher(cipher, Cipher.ENCRYPT_MODE,
+                                null, alias, transactCordova);
+                        if (initResult == InitEncryptionResult.Success) {
+                            result = writeTransaction(transaction, cipher, getSecretKey(alias));
+                        } else {
+                            result = new PluginResult(PluginResult.Status.ERROR, createErrorJSON(
+                                    FingerprintError.FingerprintGenericError, null));
+                        }
+                        transactCallbackContext.sendPluginResult(result);
+                        FingerprintMetrics.recordAction(FingerprintMetrics.Action.TRANSACT,
+                                startNanos,
+                                result.getStatus() == PluginResult.Status.OK.ordinal());
+                    } finally {
+                        mWritesInFlight.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } else if (action.equals(READ_ALL)) {
+            final List<String> keys;
+            final String prefix;
+            if (args.get(0) instanceof JSONArray) {
+                JSONArray keyArray = args.getJSONArray(0);
+                keys = new ArrayList<String>(keyArray.length());
+                for (int i = 0; i < keyArray.length(); i++) {
+                    keys.add(keyArray.getString(i));
+                }
+                prefix = null;
+            } else {
+                keys = null;
+                prefix = args.getString(0);
+            }
+            final CallbackContext readCallbackContext = callbackContext;
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    boolean read = mBulkReader.readAll(keys, prefix, readCallbackContext);
+                    FingerprintMetrics.recordAction(FingerprintMetrics.Action.READ_ALL, startNanos,
+                            read);
+                }
+            });
+            return true;
+        } else if (action.equals(RUN_LOAD_TEST)) {
+            // Only against the simulated sensor, whose key and entries are kept apart.
+            if (!isSimulated()) {
+                sendError(FingerprintError.FingerprintNotAvailable,callbackContext);
+                return true;
+            }
+            // Its requests share the prompt queue and the static callback with the app's.
+            if (isBusy() || !mLoadTestRunning.compareAndSet(false, true)) {
+                callbackContext.error("A prompt, a transaction or a load test is in progress");
+                return true;
+            }
+            final FingerprintLoadTest loadTest = new FingerprintLoadTest(mParentCordovaPlugin,
+                    args.optJSONObject(0), callbackContext);
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        loadTest.run();
+                    } finally {
+                        mLoadTestRunning.set(false);
+                    }
+                }
+            });
+            return true;
         }
         return false;
     }
@@ -401,7 +961,7 @@ public class FingerprintAuthAux {
             return false;
         }
 
-        return mFingerPrintManager.isHardwareDetected();
+        return mSensor.isHardwareDetected();
     }
 
     @TargetApi(Build.VERSION_CODES.M)
@@ -410,55 +970,180 @@ public class FingerprintAuthAux {
             return false;
         }
 
-        return mFingerPrintManager.hasEnrolledFingerprints();
+        return mSensor.hasEnrolledFingerprints();
+    }
+
+    /**
+     * @return the context the dialog takes its strings from, the given one if no locale was set
+     */
+    Context getLocalizedContext(Context fallback) {
+        Context localizedContext = mLocalizedContext;
+        return localizedContext != null ? localizedContext : fallback;
+    }
+
+    FingerprintSensor getSensor() {
+        return mSensor;
+    }
+
+    private boolean isSimulated() {
+        return mSensor instanceof SimulatedFingerprintSensor;
     }
 
     /**
      * Initialize the {@link Cipher} instance with the created key in the
-     * {@link #createKey(boolean setUserAuthenticationRequired)}
+     * {@link #createKey(String, boolean, SecurityTier)}
      * method.
      *
+     * @param entry the entry to decrypt, with the IV to use, {@code null} to encrypt
      * @return {@code true} if initialization is successful, {@code false} if the lock screen has
      * been disabled or reset after the key was generated, or if a fingerprint got enrolled after
      * the key was generated.
      */
     @TargetApi(Build.VERSION_CODES.M)
-    private InitEncryptionResult initCipher(int mode, CordovaInterface cordova) {
+    private InitEncryptionResult initCipher(Cipher cipher, int mode, FingerprintStore.Entry entry,
+                                            String alias, CordovaInterface cordova) {
+        long cryptoStart = System.nanoTime();
+        InitEncryptionResult result;
         try {
-            SecretKey key = getSecretKey();
+            SecretKey key = getSecretKey(alias);
             if (mode == Cipher.ENCRYPT_MODE) {
                 SecureRandom r = new SecureRandom();
                 byte[] ivBytes = new byte[16];
                 r.nextBytes(ivBytes);
 
-                mCipher.init(mode, key);
+                cipher.init(mode, key);
             } else {
-                SharedPreferences sharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-                byte[] ivBytes =
-                        Base64.decode(sharedPref.getString("fing_iv" + mKeyID, ""), Base64.DEFAULT);
-                mCipher.init(mode, key, new IvParameterSpec(ivBytes));
+                mStore.initDecrypt(cipher, key, entry);
             }
-            return InitEncryptionResult.Success;
+            result = InitEncryptionResult.Success;
         } catch (KeyPermanentlyInvalidatedException e) {
             LOG.e(TAG,e.getClass().getCanonicalName());
-            removePermanentlyInvalidatedKey(cordova);
-            return InitEncryptionResult.KeyPermanentlyInvalidatedException;
+            removePermanentlyInvalidatedKey(alias);
+            result = InitEncryptionResult.KeyPermanentlyInvalidatedException;
         } catch (InvalidKeyException e) {
             LOG.e(TAG,e.getClass().getCanonicalName());
-            return InitEncryptionResult.InvalidKeyException;
+            result = InitEncryptionResult.InvalidKeyException;
         } catch (InvalidAlgorithmParameterException e) {
             LOG.e(TAG,e.getClass().getCanonicalName());
-            return InitEncryptionResult.InvalidKeyException;
+            result = InitEncryptionResult.InvalidKeyException;
+        }
+        FingerprintTrace.end(FingerprintTrace.Span.CIPHER_INIT, cryptoStart);
+        FingerprintMetrics.recordStage(FingerprintMetrics.Stage.CRYPTO, cryptoStart);
+        FingerprintMetrics.recordInitResult(result);
+        return result;
+    }
+
+    /**
+     * Loads the key and the stored IV for the given entry and initializes a dedicated cipher for
+     * it, so a verify following shortly after only has to show the dialog.
+     */
+    private void prepareCipher(String keyID, CallbackContext callbackContext) {
+        FingerprintStore.Entry entry = mStore.get(keyID);
+        if (entry == null) {
+            sendError(FingerprintError.FingerprintSecretKeyNotFound,callbackContext);
+            return;
+        }
+        Cipher cipher = createCipher();
+        InitEncryptionResult result = initCipher(cipher, Cipher.DECRYPT_MODE, entry,
+                getEntryKeyAlias(entry), mParentCordovaPlugin.cordova);
+        if (result == InitEncryptionResult.Success) {
+            synchronized (this) {
+                mPreparedCipher = cipher;
+                mPreparedKeyID = keyID;
+                mPreparedEntry = entry;
+                mPreparedAt = SystemClock.elapsedRealtime();
+            }
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+        } else if (result == InitEncryptionResult.KeyPermanentlyInvalidatedException) {
+            sendError(FingerprintError.FingerprintInvalidateKey,callbackContext);
+        } else {
+            sendError(FingerprintError.FingerprintSecretKeyNotFound,callbackContext);
+        }
+    }
+
+    private synchronized boolean hasPreparedCipher(String keyID) {
+        return mPreparedCipher != null && keyID.equals(mPreparedKeyID)
+                && SystemClock.elapsedRealtime() - mPreparedAt < PREPARED_CIPHER_TTL_MILLIS;
+    }
+
+    /**
+     * Hands out the prepared cipher for the entry of the prompt, together with the version of the
+     * entry it was prepared for. A cipher is only used for one authentication, so it is forgotten once
+     * taken.
+     *
+     * @return the prepared cipher, or {@code null} if there is none or it expired
+     */
+    private synchronized Cipher takePreparedCipher(PendingPrompt prompt) {
+        Cipher cipher = hasPreparedCipher(prompt.key) ? mPreparedCipher : null;
+        if (cipher != null) {
+            prompt.entry = mPreparedEntry;
         }
+        mPreparedCipher = null;
+        mPreparedKeyID = null;
+        mPreparedEntry = null;
+        return cipher;
     }
 
-    private SecretKey getSecretKey() {
+    /**
+     * Forgets the prepared cipher once the entry it was prepared for changes.
+     *
+     * @param keyID the changed entry, or {@code null} if all entries changed
+     */
+    private synchronized void discardPreparedCipher(String keyID) {
+        if (keyID == null || keyID.equals(mPreparedKeyID)) {
+            mPreparedCipher = null;
+            mPreparedKeyID = null;
+            mPreparedEntry = null;
+        }
+    }
+
+    /**
+     * @return {@code true} while a prompt is showing or queued, or a transaction is being written
+     * without one
+     */
+    private boolean isBusy() {
+        synchronized (mQueuedPrompts) {
+            if (mActivePrompt != null || !mQueuedPrompts.isEmpty()) {
+                return true;
+            }
+        }
+        return mWritesInFlight.get() > 0;
+    }
+
+    /**
+     * @return {@code false} while a prompt or a prepared cipher may still use a key that is about
+     * to be deleted
+     */
+    boolean canReleaseKeys() {
+        synchronized (mQueuedPrompts) {
+            if (mActivePrompt != null || !mQueuedPrompts.isEmpty()) {
+                return false;
+            }
+        }
+        synchronized (this) {
+            return mPreparedCipher == null;
+        }
+    }
+
+    /**
+     * @return the alias of the key the given entry is encrypted with
+     */
+    private String getEntryKeyAlias(String keyID) {
+        String alias = mStore.getKeyAlias(keyID);
+        return alias != null ? alias : mKeyAlias;
+    }
+
+    private String getEntryKeyAlias(FingerprintStore.Entry entry) {
+        return entry.alias != null ? entry.alias : mKeyAlias;
+    }
+
+    private SecretKey getSecretKey(String alias) {
         String errorMessage = "";
         String getSecretKeyExceptionErrorPrefix = "Failed to get SecretKey from KeyStore: ";
         SecretKey key = null;
+        long keyStoreStart = System.nanoTime();
         try {
-            mKeyStore.load(null);
-            key = (SecretKey) mKeyStore.getKey(CLIENT_ID, null);
+            key = FingerprintStore.getSecretKey(mKeyStore, alias);
         } catch (KeyStoreException e) {
             errorMessage = getSecretKeyExceptionErrorPrefix + "KeyStoreException";
         } catch (CertificateException e) {
@@ -471,6 +1156,9 @@ public class FingerprintAuthAux {
             errorMessage = getSecretKeyExceptionErrorPrefix + "NoSuchAlgorithmException";
         } catch (UnrecoverableEntryException e) {
             errorMessage = getSecretKeyExceptionErrorPrefix + "UnrecoverableEntryException";
+        } finally {
+            FingerprintTrace.end(FingerprintTrace.Span.KEYSTORE_LOAD, keyStoreStart);
+            FingerprintMetrics.recordStage(FingerprintMetrics.Stage.KEYSTORE, keyStoreStart);
         }
         if (key == null) {
             Log.e(TAG, errorMessage);
@@ -478,65 +1166,291 @@ public class FingerprintAuthAux {
         return key;
     }
 
-    public void showFingerprintDialog(final int mode, final String message, final CordovaInterface cordova) {
-        final FingerprintAuthAux auth = this;
-        mCurrentMode = mode;
-        cordova.getActivity().runOnUiThread(new Runnable() {
-            @TargetApi(Build.VERSION_CODES.M)
+    /**
+     * Shows the dialog for the given request, or attaches the request to a prompt that will
+     * deliver the same result. Requests that cannot share a prompt are queued behind the one
+     * currently showing.
+     */
+    private void requestPrompt(int mode, String key, String message, String toEncrypt,
+                               boolean compress, String alias, long expiresAt, long timeoutMillis,
+                               CallbackContext callbackContext, CordovaInterface cordova) {
+        queuePrompt(new PendingPrompt(mode, key, message, toEncrypt, compress, alias, expiresAt,
+                callbackContext), callbackContext, timeoutMillis, cordova);
+    }
+
+    /**
+     * Shows the given prompt, queues it, or attaches its caller to a prompt it can share.
+     */
+    private void queuePrompt(PendingPrompt prompt, CallbackContext callbackContext,
+                             long timeoutMillis, CordovaInterface cordova) {
+        boolean show;
+        synchronized (mQueuedPrompts) {
+            if (mActivePrompt != null && mActivePrompt.canJoin(prompt.mode, prompt.key)) {
+                mActivePrompt.attach(callbackContext);
+                return;
+            }
+            for (PendingPrompt queued : mQueuedPrompts) {
+                if (queued.canJoin(prompt.mode, prompt.key)) {
+                    queued.attach(callbackContext);
+                    return;
+                }
+            }
+            show = mActivePrompt == null;
+            if (show) {
+                mActivePrompt = prompt;
+            } else {
+                mQueuedPrompts.add(prompt);
+            }
+        }
+        if (timeoutMillis > 0) {
+            // The deadline counts from the call, also while the prompt waits in the queue.
+            final PendingPrompt timedPrompt = prompt;
+            prompt.timeout = new Runnable() {
+                public void run() {
+                    abandonPrompt(timedPrompt, FingerprintError.FingerprintTimeout);
+                }
+            };
+            mHandler.postAtTime(prompt.timeout, mPromptTimeoutToken,
+                    SystemClock.uptimeMillis() + timeoutMillis);
+        }
+        if (show) {
+            showFingerprintDialog(prompt, cordova);
+        }
+    }
+
+    /**
+     * Sends the result of a prompt to all of its callers, and shows the next queued one if it was
+     * the prompt showing. Does nothing if the prompt was already finished.
+     */
+    private void finishPrompt(PendingPrompt prompt, PluginResult pluginResult) {
+        PendingPrompt next = null;
+        synchronized (mQueuedPrompts) {
+            if (prompt == null) {
+                return;
+            }
+            if (prompt == mActivePrompt) {
+                next = mQueuedPrompts.poll();
+                mActivePrompt = next;
+            } else if (!mQueuedPrompts.remove(prompt)) {
+                return;
+            }
+        }
+        if (prompt.timeout != null) {
+            mHandler.removeCallbacks(prompt.timeout);
+        }
+        prompt.cipher = null;
+        pluginResult.setKeepCallback(false);
+        prompt.sendPluginResult(pluginResult);
+        FingerprintMetrics.recordAction(prompt.transaction != null
+                        ? FingerprintMetrics.Action.TRANSACT : prompt.mode == Cipher.DECRYPT_MODE
+                        ? FingerprintMetrics.Action.VERIFY : FingerprintMetrics.Action.SAVE,
+                prompt.startNanos, pluginResult.getStatus() == PluginResult.Status.OK.ordinal());
+        if (next != null) {
+            showFingerprintDialog(next, mParentCordovaPlugin.cordova);
+        }
+    }
+
+    private void finishPrompt(PendingPrompt prompt, FingerprintError error, JSONObject ext) {
+        finishPrompt(prompt, new PluginResult(PluginResult.Status.ERROR, createErrorJSON(error, ext)));
+    }
+
+    /**
+     * Ends a prompt with the given error before the user answered it: stops the sensor and
+     * dismisses the dialog if it is showing, or takes it out of the queue.
+     */
+    private void abandonPrompt(PendingPrompt prompt, FingerprintError error) {
+        if (prompt == getActivePrompt()) {
+            mParentCordovaPlugin.cordova.getActivity().runOnUiThread(new Runnable() {
+                public void run() {
+                    if (mFragment != null) {
+                        mFragment.abandon();
+                    }
+                }
+            });
+        }
+        finishPrompt(prompt, error, null);
+    }
+
+    /**
+     * Ends every prompt, the queued ones first so that none of them comes up in between.
+     *
+     * @return the number of prompts ended
+     */
+    private int abandonAllPrompts(FingerprintError error) {
+        PendingPrompt[] queued;
+        PendingPrompt active;
+        synchronized (mQueuedPrompts) {
+            queued = mQueuedPrompts.toArray(new PendingPrompt[mQueuedPrompts.size()]);
+            active = mActivePrompt;
+        }
+        for (PendingPrompt prompt : queued) {
+            abandonPrompt(prompt, error);
+        }
+        if (active != null) {
+            abandonPrompt(active, error);
+        }
+        return queued.length + (active != null ? 1 : 0);
+    }
+
+    private PendingPrompt getActivePrompt() {
+        synchronized (mQueuedPrompts) {
+            return mActivePrompt;
+        }
+    }
+
+    /**
+     * Initializes the cipher for the prompt on a background thread, since that loads the key and
+     * reads the stored IV, and only then shows the dialog on the UI thread.
+     */
+    public void showFingerprintDialog(final PendingPrompt prompt, final CordovaInterface cordova) {
+        // A queued prompt may come up after the one before it locked the sensor out.
+        if (mLockout.isLockedOut()) {
+            finishPrompt(prompt, FingerprintError.FingerprintLockedOut, mLockout.toJSON());
+            return;
+        }
+        final long traceStart = FingerprintTrace.begin();
+        cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 // Set up the crypto object for later. The object will be authenticated by use
                 // of the fingerprint.
-                mFragment = new FingerprintAuthenticationDialogFragment();
-                Bundle bundle = new Bundle();
-                bundle.putInt("dialogMode", mode);
-                bundle.putString("dialogMessage", message);
-                mFragment.setArguments(bundle);
-                mFragment.setmFingerPrintAuth(auth);
-
-                InitEncryptionResult result = initCipher(mode, cordova);
+                InitEncryptionResult result = InitEncryptionResult.Success;
+                Cipher cipher = null;
+                if (prompt.mode == Cipher.DECRYPT_MODE) {
+                    cipher = takePreparedCipher(prompt);
+                }
+                if (cipher == null) {
+                    // Each prompt gets its own cipher, so that it is not shared with saves
+                    // running on the bridge thread in the meantime.
+                    cipher = createCipher();
+                    if (prompt.mode == Cipher.DECRYPT_MODE) {
+                        // The cipher text is kept with the cipher, which only decrypts the version
+                        // of the entry it was initialized for.
+                        FingerprintStore.Entry entry = mStore.get(prompt.key);
+                        if (entry == null) {
+                            result = InitEncryptionResult.InvalidKeyException;
+                        } else {
+                            result = initCipher(cipher, prompt.mode, entry,
+                                    getEntryKeyAlias(entry), cordova);
+                            prompt.entry = entry;
+                        }
+                    } else {
+                        result = initCipher(cipher, prompt.mode, null,
+                                prompt.alias != null ? prompt.alias : mKeyAlias, cordova);
+                    }
+                }
                 if (result == InitEncryptionResult.Success) {
-                    mFragment.setCancelable(false);
-                    // Show the fingerprint dialog. The user has the option to use the fingerprint with
-                    // crypto, or you can fall back to using a server-side verified password.
-                    mFragment.setCryptoObject(new FingerprintManager.CryptoObject(mCipher));
-                    mFragment.show(cordova.getActivity().getFragmentManager(), DIALOG_FRAGMENT_TAG);
+                    prompt.cipher = cipher;
+                    final FingerprintManager.CryptoObject cryptoObject =
+                            new FingerprintManager.CryptoObject(cipher);
+                    cordova.getActivity().runOnUiThread(new Runnable() {
+                        public void run() {
+                            // The prompt may have timed out or been cancelled in the meantime.
+                            if (prompt != getActivePrompt()) {
+                                return;
+                            }
+                            showDialogFragment(prompt, cryptoObject, cordova);
+                            FingerprintTrace.end(FingerprintTrace.Span.DIALOG_SHOWN, traceStart);
+                        }
+                    });
+                } else if (result == InitEncryptionResult.KeyPermanentlyInvalidatedException) {
+                    finishPrompt(prompt, FingerprintError.FingerprintInvalidateKey, null);
                 } else {
-                    if(result == InitEncryptionResult.KeyPermanentlyInvalidatedException){
-                        sendError(FingerprintError.FingerprintInvalidateKey,mCallbackContext);
-                    }else{
-                        sendError(FingerprintError.FingerprintSecretKeyNotFound,mCallbackContext);
-                    }
+                    finishPrompt(prompt, FingerprintError.FingerprintSecretKeyNotFound, null);
                 }
             }
         });
     }
 
-    public void onAuthenticated(boolean withFingerprint) {
+    @TargetApi(Build.VERSION_CODES.M)
+    private void showDialogFragment(PendingPrompt prompt,
+                                    FingerprintManager.CryptoObject cryptoObject,
+                                    CordovaInterface cordova) {
+        mFragment = new FingerprintAuthenticationDialogFragment();
+        Bundle bundle = new Bundle();
+        bundle.putInt("dialogMode", prompt.mode);
+        bundle.putString("dialogMessage", prompt.message);
+        mFragment.setArguments(bundle);
+        mFragment.setmFingerPrintAuth(this);
+        mFragment.setCancelable(false);
+        // Show the fingerprint dialog. The user has the option to use the fingerprint with
+        // crypto, or you can fall back to using a server-side verified password.
+        mFragment.setCryptoObject(cryptoObject);
+        mFragment.show(cordova.getActivity().getFragmentManager(), DIALOG_FRAGMENT_TAG);
+    }
+
+    /**
+     * Called by the dialog on the UI thread. The crypto and storage work that follows runs on a
+     * background thread.
+     */
+    public void onAuthenticated(final boolean withFingerprint) {
+        final PendingPrompt prompt = getActivePrompt();
+        if (prompt == null) {
+            return;
+        }
+        mParentCordovaPlugin.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                completeAuthentication(prompt, withFingerprint);
+            }
+        });
+    }
+
+    private void completeAuthentication(PendingPrompt prompt, boolean withFingerprint) {
+        Cipher cipher = prompt.cipher;
+        if (cipher == null) {
+            // Timed out or cancelled by the app while the dialog was closing.
+            return;
+        }
+        if (prompt.transaction != null) {
+            if (withFingerprint) {
+                mLockout.clear();
+                mPluginResult = writeTransaction(prompt.transaction, cipher, null);
+            } else {
+                mPluginResult = new PluginResult(PluginResult.Status.ERROR, "");
+            }
+            finishPrompt(prompt, mPluginResult);
+            return;
+        }
         String result = "";
         String errorMessage = "";
         try {
-
-            CordovaInterface cordova = mParentCordovaPlugin.cordova;
             if (withFingerprint) {
+                mLockout.clear();
                 // If the user has authenticated with fingerprint, verify that using cryptography and
                 // then return the encrypted token
-                SharedPreferences sharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-                if (mCurrentMode == Cipher.DECRYPT_MODE) {
-                    byte[] enc = Base64.decode(sharedPref.getString("fing" + mKeyID, ""), Base64.DEFAULT);
+                if (prompt.mode == Cipher.DECRYPT_MODE) {
+                    if (mStore.isExpired(prompt.key, System.currentTimeMillis())) {
+                        // Expired while the dialog was showing.
+                        finishPrompt(prompt, FingerprintError.FingerprintSecretKeyNotFound, null);
+                        return;
+                    }
+                    FingerprintStore.Entry entry = prompt.entry;
 
-                    byte[] decrypted = mCipher.doFinal(enc);
-                    result = new String(decrypted);
-                } else if (mCurrentMode == Cipher.ENCRYPT_MODE && setUserAuthenticationRequired) {
+                    long cryptoStart = System.nanoTime();
+                    byte[] decrypted = cipher.doFinal(entry.cipherText);
+                    FingerprintMetrics.recordStage(FingerprintMetrics.Stage.CRYPTO, cryptoStart);
+                    byte[] value = decompressValue(entry, decrypted);
+                    result = new String(value);
+                    zero(decrypted);
+                    zero(value);
+                } else if (prompt.mode == Cipher.ENCRYPT_MODE) {
                     //If setUserAuthenticationRequired encript string with key after authenticate with fingerprint
-                    SharedPreferences.Editor editor = sharedPref.edit();
-
-                    byte[] enc = mCipher.doFinal(mToEncrypt.getBytes());
-                    editor.putString("fing" + mKeyID, Base64.encodeToString(enc, Base64.DEFAULT));
-                    editor.putString("fing_iv" + mKeyID,
-                            Base64.encodeToString(mCipher.getIV(), Base64.DEFAULT));
+                    byte[] plainText = prompt.toEncrypt.getBytes();
+                    byte[] compressed = compressValue(plainText, prompt.compress);
+                    long cryptoStart = System.nanoTime();
+                    byte[] enc = cipher.doFinal(compressed != null ? compressed : plainText);
+                    FingerprintMetrics.recordStage(FingerprintMetrics.Stage.CRYPTO, cryptoStart);
+                    zero(plainText);
+                    zero(compressed);
 
-                    editor.commit();
-                    mToEncrypt = "";
+                    long storageStart = System.nanoTime();
+                    mStore.put(prompt.key, enc, cipher.getIV(), compressed != null, true,
+                            prompt.alias, prompt.expiresAt, true);
+                    if (prompt.expiresAt > 0) {
+                        mSweeper.schedule(prompt.expiresAt);
+                    }
+                    FingerprintTrace.end(FingerprintTrace.Span.STORAGE_WRITE, storageStart);
+                    FingerprintMetrics.recordStage(FingerprintMetrics.Stage.STORAGE, storageStart);
+                    discardPreparedCipher(prompt.key);
                     result = "success";
                 }
             }
@@ -550,43 +1464,146 @@ public class FingerprintAuthAux {
                     + "IllegalBlockSizeException: "
                     + e.getMessage();
             Log.e(TAG, errorMessage);
+        } catch (DataFormatException e) {
+            errorMessage = "Failed to decompress the data: " + e.getMessage();
+            Log.e(TAG, errorMessage);
         }
 
         if (!result.equals("")) {
             mPluginResult = new PluginResult(PluginResult.Status.OK, result);
-            mPluginResult.setKeepCallback(false);
         } else {
             mPluginResult = new PluginResult(PluginResult.Status.ERROR, errorMessage);
-            mPluginResult.setKeepCallback(false);
         }
-        mCallbackContext.sendPluginResult(mPluginResult);
+        finishPrompt(prompt, mPluginResult);
+    }
+
+    /**
+     * Encrypts the values of a transaction and writes it: each value with a fresh IV from the key
+     * if one is given, or else all of them with the cipher a prompt authorized.
+     *
+     * @param cipher the cipher, initialized for encryption, {@code null} if the transaction only
+     *               deletes
+     * @param key    the key, if it can be used without a prompt, or {@code null}
+     * @return the result for the caller, with the number of entries written
+     */
+    private PluginResult writeTransaction(FingerprintStore.Transaction transaction, Cipher cipher,
+                                          SecretKey key) {
+        try {
+            if (transaction.hasSaves()) {
+                long cryptoStart = System.nanoTime();
+                if (key != null) {
+                    transaction.encrypt(cipher, key);
+                } else {
+                    transaction.encrypt(cipher);
+                }
+                FingerprintMetrics.recordStage(FingerprintMetrics.Stage.CRYPTO, cryptoStart);
+            }
+        } catch (InvalidKeyException e) {
+            return new PluginResult(PluginResult.Status.ERROR,
+                    createErrorJSON(FingerprintError.FingerprintGenericError, null));
+        } catch (IllegalBlockSizeException e) {
+            return new PluginResult(PluginResult.Status.ERROR, "Error string is to big.");
+        } catch (BadPaddingException e) {
+            return new PluginResult(PluginResult.Status.ERROR, "Error Bad Padding.");
+        }
+        long storageStart = System.nanoTime();
+        boolean committed = mStore.commitTransaction(transaction);
+        FingerprintTrace.end(FingerprintTrace.Span.STORAGE_WRITE, storageStart);
+        FingerprintMetrics.recordStage(FingerprintMetrics.Stage.STORAGE, storageStart);
+        long expiresAt = transaction.getEarliestExpiresAt();
+        if (expiresAt > 0) {
+            mSweeper.schedule(expiresAt);
+        }
+        for (String keyID : transaction.getKeys()) {
+            discardPreparedCipher(keyID);
+        }
+        if (!committed) {
+            return new PluginResult(PluginResult.Status.ERROR);
+        }
+        return new PluginResult(PluginResult.Status.OK, transaction.getKeys().size());
     }
 
     public void onAutenticationError(int errorCode) {
-        if(errorCode == ERROR_CODE_LOCKED_OUT){
-            sendError(FingerprintError.FingerprintLockedOut,mCallbackContext);
+        if(errorCode == ERROR_CODE_LOCKED_OUT || errorCode == ERROR_CODE_LOCKED_OUT_PERMANENT){
+            mLockout.onLockout(errorCode == ERROR_CODE_LOCKED_OUT_PERMANENT);
+            finishPrompt(getActivePrompt(), FingerprintError.FingerprintLockedOut, mLockout.toJSON());
         }else if(errorCode == ERROR_CODE_OPERATION_ALREADY_IN_PROGRESS){
-            sendError(FingerprintError.FingerprintGenericError,mCallbackContext);
+            finishPrompt(getActivePrompt(), FingerprintError.FingerprintGenericError, null);
         }else{
-            sendError(FingerprintError.FingerprintGenericError,mCallbackContext);
+            finishPrompt(getActivePrompt(), FingerprintError.FingerprintGenericError, null);
         }
     }
 
+    /**
+     * Called by the dialog when the user cancels the prompt.
+     */
+    public void onDialogCancelled() {
+        finishPrompt(getActivePrompt(), new PluginResult(PluginResult.Status.ERROR, "Cancelled"));
+    }
 
-
-
-
-    private void removePermanentlyInvalidatedKey(CordovaInterface cordova) {
+    /**
+     * Deletes an invalidated key together with the entries encrypted with it.
+     */
+    private void removePermanentlyInvalidatedKey(String alias) {
         try {
-            mKeyStore.deleteEntry(CLIENT_ID);
-            SharedPreferences sharedPref = cordova.getActivity().getApplicationContext().getSharedPreferences(SHARED_PREFS_NAME,Context.MODE_PRIVATE);
-            sharedPref.edit().clear().commit();
+            mKeyStore.deleteEntry(alias);
+            mKeyGroups.setCreatedTier(alias, null);
+            discardPreparedCipher(null);
+            mStore.deleteWithKeyAlias(alias.equals(mKeyAlias) ? null : alias);
             Log.i(TAG, "Permanently invalidated key was removed.");
         } catch (KeyStoreException e) {
             Log.e(TAG, e.getMessage());
         }
     }
 
+    /**
+     * Fails the request right away while a recorded sensor lockout is still cooling down, without
+     * touching the key store or showing the dialog.
+     *
+     * @return {@code true} if an error was sent
+     */
+    private boolean sendErrorIfLockedOut(CallbackContext callbackContext) {
+        if (!mLockout.isLockedOut()) {
+            return false;
+        }
+        sendError(FingerprintError.FingerprintLockedOut,callbackContext,mLockout.toJSON());
+        return true;
+    }
+
+    /**
+     * @return {group, requestedTier, tier, level, encryptMicros, decryptMicros}: the tier asked
+     * for the group, and once its key exists, the tier and level it got and the latencies last
+     * measured for that tier by probeSecurityTiers
+     */
+    private JSONObject createKeyGroupInfo(String group) {
+        JSONObject resultObj = new JSONObject();
+        String groupAlias = KeyGroups.aliasOf(mKeyAlias, group);
+        String alias = mKeyGroups.getCurrentAlias(groupAlias);
+        try {
+            resultObj.put("group", group);
+            resultObj.put("rotation", mKeyRotation.getStatus(groupAlias));
+            resultObj.put("requestedTier", mKeyGroups.getTier(group).label);
+            SecretKey key = getSecretKey(alias);
+            if (key != null) {
+                SecurityTier tier = mKeyGroups.getCreatedTier(alias);
+                if (tier == null) {
+                    // Created by a version that did not record it, in the default tier.
+                    tier = SecurityTier.TEE;
+                }
+                resultObj.put("tier", tier.label);
+                resultObj.put("level", tier.levelOf(key));
+                JSONObject probe = SecurityTierProbe.getResult(tier);
+                if (probe != null && probe.has("encryptMicros")) {
+                    resultObj.put("encryptMicros", probe.getLong("encryptMicros"));
+                    resultObj.put("decryptMicros", probe.getLong("decryptMicros"));
+                }
+            }
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        return resultObj;
+    }
+
     private JSONObject createHasKeyResult(boolean res){
         JSONObject resultObj=new JSONObject();
         try {
@@ -602,6 +1619,11 @@ public class FingerprintAuthAux {
     }
 
     private void sendError(FingerprintError error,CallbackContext callbackContext,JSONObject ext){
+        callbackContext.error(createErrorJSON(error,ext));
+    }
+
+    private JSONObject createErrorJSON(FingerprintError error,JSONObject ext){
+        FingerprintMetrics.recordError(error);
         JSONObject errJSON= error.toJSON();
         if(ext != null){
             try {
@@ -610,7 +1632,7 @@ public class FingerprintAuthAux {
                 LOG.e("sendError error",ex.getMessage(),ex);
             }
         }
-        callbackContext.error(errJSON);
+        return errJSON;
     }
 
 }
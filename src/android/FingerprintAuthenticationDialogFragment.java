@@ -23,6 +23,7 @@ import android.app.KeyguardManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.res.Resources;
 import android.hardware.fingerprint.FingerprintManager;
 import android.os.Build;
 import android.os.Bundle;
@@ -58,6 +59,14 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     private FingerprintUiHelper mFingerprintUiHelper;
     private FingerprintAuthAux mFingerPrintAuth;
     FingerprintUiHelper.FingerprintUiHelperBuilder mFingerprintUiHelperBuilder;
+    /**
+     * Set once the plugin ended the prompt itself, after which nothing is reported back
+     */
+    private boolean mAbandoned;
+    /**
+     * Resources of the locale set by setLocale, for the strings the dialog shows
+     */
+    private Resources mLocalizedResources;
 
     public FingerprintAuthenticationDialogFragment() {
     }
@@ -72,8 +81,10 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
         setStyle(DialogFragment.STYLE_NORMAL, android.R.style.Theme_Material_Light_Dialog);
 
         mKeyguardManager = (KeyguardManager) getContext().getSystemService(Context.KEYGUARD_SERVICE);
+        Context localizedContext = mFingerPrintAuth.getLocalizedContext(getContext());
+        mLocalizedResources = localizedContext.getResources();
         mFingerprintUiHelperBuilder = new FingerprintUiHelper.FingerprintUiHelperBuilder(
-                getContext(), getContext().getSystemService(FingerprintManager.class));
+                localizedContext, mFingerPrintAuth.getSensor());
 
     }
 
@@ -83,12 +94,14 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
         Bundle args = getArguments();
         int dialogMode = args.getInt("dialogMode");
         String message = args.getString("dialogMessage");
-        Log.d(TAG, "dialogMode: " + dialogMode);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "dialogMode: " + dialogMode);
+        }
 
         int fingerprint_auth_dialog_title_id = getResources()
                 .getIdentifier("fingerprint_auth_dialog_title", "string",
                         FingerprintAuth.packageName);
-        getDialog().setTitle(getString(fingerprint_auth_dialog_title_id));
+        getDialog().setTitle(mLocalizedResources.getString(fingerprint_auth_dialog_title_id));
         int fingerprint_dialog_container_id = getResources()
                 .getIdentifier("fingerprint_dialog_container", "layout",
                         FingerprintAuth.packageName);
@@ -103,7 +116,9 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
         mCancelButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                FingerprintAuth.onCancelled();
+                if (!mAbandoned) {
+                    mFingerPrintAuth.onDialogCancelled();
+                }
                 dismiss();
             }
         });
@@ -120,15 +135,44 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
                 .getIdentifier("fingerprint_icon", "id", FingerprintAuth.packageName);
         int fingerprint_status_id = getResources()
                 .getIdentifier("fingerprint_status", "id", FingerprintAuth.packageName);
+        TextView status = (TextView) v.findViewById(fingerprint_status_id);
+        int fingerprint_hint_id = getResources()
+                .getIdentifier("fingerprint_hint", "string", FingerprintAuth.packageName);
+        status.setText(mLocalizedResources.getString(fingerprint_hint_id));
         mFingerprintUiHelper = mFingerprintUiHelperBuilder.build(
-                (ImageView) v.findViewById(fingerprint_icon_id),
-                (TextView) v.findViewById(fingerprint_status_id), this);
+                (ImageView) v.findViewById(fingerprint_icon_id), status, this);
         updateStage();
 
         return v;
     }
 
 
+    /**
+     * Lets go of the views, which belong to the activity they were shown in. The dialog is kept
+     * across configuration changes and creates them again for the new activity.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mCancelButton = null;
+        mFingerprintContent = null;
+        mFingerprintUiHelper = null;
+    }
+
+    /**
+     * Lets go of the cipher and tells the plugin the dialog is gone, once it was dismissed or its
+     * activity finished.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mCryptoObject = null;
+        mFingerprintUiHelperBuilder = null;
+        if (mFingerPrintAuth != null) {
+            mFingerPrintAuth.onDialogDestroyed(this);
+        }
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -144,7 +188,39 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     @Override
     public void onPause() {
         super.onPause();
-        mFingerprintUiHelper.stopListening();
+        if (mFingerprintUiHelper != null) {
+            mFingerprintUiHelper.stopListening();
+        }
+    }
+
+    /**
+     * Stops listening and closes the dialog without reporting back, when the prompt timed out or
+     * was cancelled by the app.
+     */
+    public void abandon() {
+        mAbandoned = true;
+        if (mFingerprintUiHelper != null) {
+            mFingerprintUiHelper.stopListening();
+        }
+        // Once the activity is destroyed, the dialog went with it.
+        Activity activity = getActivity();
+        if (activity != null && !activity.isDestroyed()) {
+            dismissAllowingStateLoss();
+        }
+    }
+
+    /**
+     * Abandons the dialog and lets go of the plugin and the cipher, when the plugin is destroyed.
+     * The instance is retained across configuration changes, so it must not keep them reachable
+     * past the plugin.
+     */
+    void release() {
+        abandon();
+        setRetainInstance(false);
+        mFingerPrintAuth = null;
+        mCryptoObject = null;
+        mFingerprintUiHelperBuilder = null;
+        mFingerprintUiHelper = null;
     }
 
     /**
@@ -166,7 +242,7 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
                 .getIdentifier("cancel", "string", FingerprintAuth.packageName);
         switch (mStage) {
             case FINGERPRINT:
-                mCancelButton.setText(cancel_id);
+                mCancelButton.setText(mLocalizedResources.getString(cancel_id));
                 mFingerprintContent.setVisibility(View.VISIBLE);
                 break;
         }
@@ -184,14 +260,14 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (requestCode == REQUEST_CODE_CONFIRM_DEVICE_CREDENTIALS) {
+        if (requestCode == REQUEST_CODE_CONFIRM_DEVICE_CREDENTIALS && !mAbandoned) {
             // Challenge completed, proceed with using cipher
             if (resultCode == Activity.RESULT_OK) {
                 mFingerPrintAuth.onAuthenticated(false /* used backup */);
             } else {
                 // The user canceled or didn’t complete the lock screen
                 // operation. Go to error/cancellation flow.
-                FingerprintAuth.onCancelled();
+                mFingerPrintAuth.onDialogCancelled();
             }
             dismiss();
         }
@@ -201,6 +277,9 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     public void onAuthenticated() {
         // Callback from FingerprintUiHelper. Let the activity know that authentication was
         // successful.
+        if (mAbandoned) {
+            return;
+        }
         mFingerPrintAuth.onAuthenticated(true /* withFingerprint */);
         dismiss();
     }
@@ -208,6 +287,9 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     @Override
     public void onError(int errMsgId, String errString) {
         LOG.e("onError","Code: " +  errMsgId + "; Message:",errString);
+        if (mAbandoned) {
+            return;
+        }
         mFingerPrintAuth.onAutenticationError(errMsgId);
         dismiss();
     }
@@ -215,7 +297,9 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     @Override
     public void onCancel(DialogInterface dialog) {
         super.onCancel(dialog);
-        FingerprintAuth.onCancelled();
+        if (!mAbandoned) {
+            mFingerPrintAuth.onDialogCancelled();
+        }
     }
 
     public FingerprintAuthAux getmFingerPrintAuth() {
@@ -0,0 +1,498 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Export and import of the saved entries for the exportStore and importStore actions, to move
+ * them to another device in one pass.
+ *
+ * The backup starts with a header naming how the transfer key is made: taken as is from the
+ * caller's 32 byte {@code transferKey}, or derived from a {@code password} with PBKDF2 and the
+ * salt and iteration count in the header. PBKDF2 uses HmacSHA256 from Android 8.0 on, which
+ * earlier versions lack, and HmacSHA1 with more iterations before that; backups with the 10000
+ * HmacSHA1 iterations of earlier versions of the plugin still import. The header is followed by
+ * chunks of at most {@link #CHUNK_SIZE} bytes of entries, each sealed with AES-GCM under the
+ * transfer key. The header, the chunk's number and whether it is the last one are authenticated
+ * with every chunk, so a backup that was changed, reordered or cut short does not import. Entries
+ * are written and read one chunk at a time, and the store is gone through one shard at a time, so
+ * the memory used does not grow with the number of entries, and progress is reported after each
+ * chunk.
+ *
+ * Entries saved behind a prompt, or encrypted with a key that requires authenticating for every
+ * use, cannot be read without a prompt each. The export fails if there are any, unless the caller
+ * agrees to leave them out, and they are counted as skipped. Imported entries are encrypted with
+ * the key of the given key group, which must exist and not require authentication, as they are
+ * saved without a prompt.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+class FingerprintBackup {
+
+    private static final String TAG = "FingerprintBackup";
+    private static final int MAGIC = 0x46504231; // "FPB1"
+    private static final byte KDF_NONE = 0;
+    private static final byte KDF_PBKDF2 = 1;
+    private static final byte KDF_PBKDF2_SHA256 = 2;
+    static final int CHUNK_SIZE = 32 * 1024;
+    /**
+     * Upper bound of a sealed chunk, which is larger than {@link #CHUNK_SIZE} if it ends with a
+     * large entry, against a length field that was tampered with
+     */
+    private static final int MAX_SEALED_CHUNK_SIZE = 8 * 1024 * 1024;
+    static final int PBKDF2_ITERATIONS = 1300000;
+    static final int PBKDF2_SHA256_ITERATIONS = 600000;
+    /** Upper bound of the iterations in a header, against one that was tampered with */
+    private static final int MAX_PBKDF2_ITERATIONS = 4 * PBKDF2_ITERATIONS;
+    private static final int SALT_SIZE = 16;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TRANSFER_KEY_SIZE = 32;
+
+    private final FingerprintStore mStore;
+    private final KeyGroups mKeyGroups;
+    private final KeyStore mKeyStore;
+    private final String mBaseAlias;
+    private final ContentResolver mContentResolver;
+    private final SecureRandom mRandom = new SecureRandom();
+
+    /**
+     * @param baseAlias the plugin's key alias, which the entries without a key alias use
+     */
+    FingerprintBackup(FingerprintStore store, KeyGroups keyGroups, KeyStore keyStore,
+                      String baseAlias, ContentResolver contentResolver) {
+        if (keyStore == null) {
+            throw new IllegalArgumentException("The key store is not loaded yet");
+        }
+        mStore = store;
+        mKeyGroups = keyGroups;
+        mKeyStore = keyStore;
+        mBaseAlias = baseAlias;
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Writes the entries to the uri of the options, one shard of the store at a time. Sends
+     * {progress: {done}} results while it runs, keeping the callback, and {exported, skipped} at
+     * the end. Entries that cannot be read without a prompt make the export fail, with their
+     * number in the message, unless skipAuthRequired is set; then they are counted as skipped. If
+     * the export fails, what was written is deleted, or emptied if the provider does not allow it.
+     *
+     * @param options {uri, password} or {uri, transferKey}, the key in Base64, and optionally
+     *                skipAuthRequired
+     */
+    void exportStore(JSONObject options, CallbackContext callbackContext) {
+        Uri uri = null;
+        OutputStream out = null;
+        try {
+            uri = Uri.parse(options.getString("uri"));
+            boolean skipAuthRequired = options.optBoolean("skipAuthRequired", false);
+            out = mContentResolver.openOutputStream(uri);
+            if (out == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            byte[] header = createHeader(options);
+            SecretKey transferKey = getTransferKey(options, header);
+            out.write(header);
+
+            Map<String, SecretKey> keysByAlias = new HashMap<String, SecretKey>();
+            Cipher cipher = FingerprintAuthAux.createCipher();
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+            DataOutputStream records = new DataOutputStream(chunk);
+            long now = System.currentTimeMillis();
+            int chunkIndex = 0;
+            int done = 0;
+            int exported = 0;
+            int skipped = 0;
+            for (int shard = 0; shard < mStore.getShardCount(); shard++) {
+                for (String key : mStore.keysInShard(shard)) {
+                    done++;
+                    FingerprintStore.Entry entry = mStore.get(key);
+                    if (entry == null || mStore.isExpired(key, now)) {
+                        continue;
+                    }
+                    SecretKey secretKey = null;
+                    // One saved behind a prompt is skipped, even if its key was created without.
+                    if (!entry.authRequired) {
+                        String alias = entry.alias != null ? entry.alias : mBaseAlias;
+                        if (!keysByAlias.containsKey(alias)) {
+                            secretKey = getSecretKey(alias);
+                            keysByAlias.put(alias, secretKey == null
+                                    || KeyRotation.requiresAuthentication(secretKey)
+                                    ? null : secretKey);
+                        }
+                        secretKey = keysByAlias.get(alias);
+                    }
+                    if (secretKey == null) {
+                        skipped++;
+                        continue;
+                    }
+                    cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(entry.iv));
+                    byte[] value = FingerprintAuthAux.decompressValue(entry,
+                            cipher.doFinal(entry.cipherText));
+                    records.writeUTF(key);
+                    records.writeLong(mStore.getExpiresAt(key));
+                    records.writeInt(value.length);
+                    records.write(value);
+                    Arrays.fill(value, (byte) 0);
+                    exported++;
+                    if (chunk.size() >= CHUNK_SIZE) {
+                        writeChunk(out, transferKey, header, chunkIndex++, false, chunk);
+                        sendProgress(callbackContext, done, -1);
+                    }
+                }
+                mStore.releaseShard(shard);
+            }
+            if (skipped > 0 && !skipAuthRequired) {
+                throw new GeneralSecurityException(skipped + " entries need a fingerprint to"
+                        + " be read and cannot be exported, set skipAuthRequired to export the"
+                        + " others");
+            }
+            writeChunk(out, transferKey, header, chunkIndex, true, chunk);
+            out.flush();
+            close(out);
+            out = null;
+
+            JSONObject result = new JSONObject();
+            result.put("exported", exported);
+            result.put("skipped", skipped);
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
+        } catch (Exception e) {
+            if (out != null) {
+                close(out);
+                out = null;
+                discardOutput(uri);
+            }
+            fail(callbackContext, "export", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Reads the entries from the uri of the options and saves them. Sends {progress: {done}}
+     * results while it runs, keeping the callback, and {imported, kept} at the end. Entries that
+     * expired since the export are left out.
+     *
+     * @param options {uri, password} or {uri, transferKey}, and optionally keyGroup, to encrypt the
+     *                entries with its key, and overwrite, false to keep the entries that exist
+     */
+    void importStore(JSONObject options, CallbackContext callbackContext) {
+        InputStream in = null;
+        try {
+            Uri uri = Uri.parse(options.getString("uri"));
+            String keyGroup = options.optString("keyGroup", "");
+            boolean overwrite = options.optBoolean("overwrite", true);
+            in = mContentResolver.openInputStream(uri);
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            DataInputStream data = new DataInputStream(in);
+            byte[] header = readHeader(data);
+            SecretKey transferKey = getTransferKey(options, header);
+
+            String alias = mKeyGroups.getCurrentAlias(KeyGroups.aliasOf(mBaseAlias, keyGroup));
+            SecretKey secretKey = getImportKey(alias);
+            String entryAlias = alias.equals(mBaseAlias) ? null : alias;
+            Cipher cipher = FingerprintAuthAux.createCipher();
+            long now = System.currentTimeMillis();
+            int done = 0;
+            int imported = 0;
+            int kept = 0;
+            boolean last = false;
+            for (int chunkIndex = 0; !last; chunkIndex++) {
+                int sealedSize = data.readInt();
+                last = data.readBoolean();
+                if (sealedSize < 0 || sealedSize > MAX_SEALED_CHUNK_SIZE) {
+                    throw new IOException("Not a backup");
+                }
+                byte[] sealed = new byte[sealedSize];
+                data.readFully(sealed);
+                byte[] plain = openChunk(transferKey, header, chunkIndex, last, sealed);
+                DataInputStream records = new DataInputStream(new ByteArrayInputStream(plain));
+                while (records.available() > 0) {
+                    String key = records.readUTF();
+                    long expiresAt = records.readLong();
+                    byte[] value = new byte[records.readInt()];
+                    records.readFully(value);
+                    done++;
+                    if (expiresAt > 0 && expiresAt <= now) {
+                        // Expired since the export.
+                    } else if (!overwrite && mStore.has(key)) {
+                        kept++;
+                    } else {
+                        // Not compressed, as that is only done when a save asks for it.
+                        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+                        byte[] enc = cipher.doFinal(value);
+                        // Only values readable without a prompt are exported.
+                        mStore.put(key, enc, cipher.getIV(), false, false, entryAlias, expiresAt,
+                                false);
+                        imported++;
+                    }
+                    Arrays.fill(value, (byte) 0);
+                }
+                Arrays.fill(plain, (byte) 0);
+                if (!last) {
+                    sendProgress(callbackContext, done, -1);
+                }
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("imported", imported);
+            result.put("kept", kept);
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
+        } catch (EOFException e) {
+            fail(callbackContext, "import", new IOException("The backup is incomplete"));
+        } catch (AEADBadTagException e) {
+            fail(callbackContext, "import",
+                    new GeneralSecurityException("Wrong transfer key, or the backup was changed"));
+        } catch (Exception e) {
+            fail(callbackContext, "import", e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private byte[] createHeader(JSONObject options) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(MAGIC);
+        if (options.has("transferKey")) {
+            data.writeByte(KDF_NONE);
+        } else {
+            byte[] salt = new byte[SALT_SIZE];
+            mRandom.nextBytes(salt);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                data.writeByte(KDF_PBKDF2_SHA256);
+                data.writeInt(PBKDF2_SHA256_ITERATIONS);
+            } else {
+                data.writeByte(KDF_PBKDF2);
+                data.writeInt(PBKDF2_ITERATIONS);
+            }
+            data.write(salt);
+        }
+        return header.toByteArray();
+    }
+
+    private static byte[] readHeader(DataInputStream data) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream copy = new DataOutputStream(header);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a backup");
+        }
+        copy.writeInt(MAGIC);
+        byte kdf = data.readByte();
+        copy.writeByte(kdf);
+        if (kdf == KDF_PBKDF2 || kdf == KDF_PBKDF2_SHA256) {
+            int iterations = data.readInt();
+            // Bounded, so a changed header cannot keep the import busy deriving the key.
+            if (iterations <= 0 || iterations > MAX_PBKDF2_ITERATIONS) {
+                throw new IOException("Not a backup");
+            }
+            copy.writeInt(iterations);
+            byte[] salt = new byte[SALT_SIZE];
+            data.readFully(salt);
+            copy.write(salt);
+        } else if (kdf != KDF_NONE) {
+            throw new IOException("Not a backup");
+        }
+        return header.toByteArray();
+    }
+
+    /**
+     * @return the transfer key, from the options and the salt and iterations in the header
+     */
+    private static SecretKey getTransferKey(JSONObject options, byte[] header)
+            throws GeneralSecurityException, IOException, JSONException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(header));
+        data.readInt();
+        byte kdf = data.readByte();
+        if (kdf == KDF_NONE) {
+            byte[] key = Base64.decode(options.getString("transferKey"), Base64.DEFAULT);
+            if (key.length != TRANSFER_KEY_SIZE) {
+                throw new GeneralSecurityException("transferKey must be 32 bytes");
+            }
+            return new SecretKeySpec(key, KeyProperties.KEY_ALGORITHM_AES);
+        }
+        int iterations = data.readInt();
+        byte[] salt = new byte[SALT_SIZE];
+        data.readFully(salt);
+        if (kdf == KDF_PBKDF2_SHA256 && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            throw new GeneralSecurityException("The backup needs Android 8.0 or later to import");
+        }
+        String algorithm = kdf == KDF_PBKDF2_SHA256 ? "PBKDF2WithHmacSHA256" : "PBKDF2WithHmacSHA1";
+        char[] password = options.getString("password").toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, TRANSFER_KEY_SIZE * 8);
+        try {
+            byte[] key = SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+            return new SecretKeySpec(key, KeyProperties.KEY_ALGORITHM_AES);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    /**
+     * Seals the chunk and writes it as {length, last, nonce + cipher text}, then empties it.
+     */
+    private void writeChunk(OutputStream out, SecretKey transferKey, byte[] header,
+                            int chunkIndex, boolean last, ByteArrayOutputStream chunk)
+            throws GeneralSecurityException, IOException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        mRandom.nextBytes(nonce);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, transferKey, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(createAad(header, chunkIndex, last));
+        byte[] plain = chunk.toByteArray();
+        byte[] sealed = cipher.doFinal(plain);
+        Arrays.fill(plain, (byte) 0);
+        chunk.reset();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(NONCE_SIZE + sealed.length);
+        data.writeBoolean(last);
+        data.write(nonce);
+        data.write(sealed);
+    }
+
+    private static byte[] openChunk(SecretKey transferKey, byte[] header, int chunkIndex,
+                                    boolean last, byte[] sealed)
+            throws GeneralSecurityException {
+        if (sealed.length < NONCE_SIZE) {
+            throw new GeneralSecurityException("Not a backup");
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, transferKey,
+                new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_SIZE));
+        cipher.updateAAD(createAad(header, chunkIndex, last));
+        return cipher.doFinal(sealed, NONCE_SIZE, sealed.length - NONCE_SIZE);
+    }
+
+    private static byte[] createAad(byte[] header, int chunkIndex, boolean last) {
+        byte[] aad = Arrays.copyOf(header, header.length + 5);
+        aad[header.length] = (byte) (chunkIndex >>> 24);
+        aad[header.length + 1] = (byte) (chunkIndex >>> 16);
+        aad[header.length + 2] = (byte) (chunkIndex >>> 8);
+        aad[header.length + 3] = (byte) chunkIndex;
+        aad[header.length + 4] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+
+    private SecretKey getSecretKey(String alias) throws GeneralSecurityException, IOException {
+        return FingerprintStore.getSecretKey(mKeyStore, alias);
+    }
+
+    /**
+     * @return the key imported entries are encrypted with. It is not created here, as a key made
+     * without requiring authentication would then also hold the group's later saves that ask for a
+     * fingerprint; a save without one creates it.
+     */
+    private SecretKey getImportKey(String alias) throws GeneralSecurityException, IOException {
+        SecretKey secretKey = getSecretKey(alias);
+        if (secretKey == null) {
+            throw new GeneralSecurityException("The key of the key group does not exist yet, save"
+                    + " a value with userAuthenticationRequired false in the group first");
+        } else if (KeyRotation.requiresAuthentication(secretKey)) {
+            throw new GeneralSecurityException(
+                    "The key of the key group requires authentication for every use");
+        }
+        return secretKey;
+    }
+
+    /**
+     * Removes what a failed export wrote, so that no partial backup is left at the uri: the file
+     * or document is deleted, or emptied if it cannot be.
+     */
+    private void discardOutput(Uri uri) {
+        try {
+            if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())
+                    ? new File(uri.getPath()).delete()
+                    : DocumentsContract.deleteDocument(mContentResolver, uri)) {
+                return;
+            }
+        } catch (Exception e) {
+            // Not a document, or its provider does not delete documents.
+        }
+        OutputStream out = null;
+        try {
+            out = mContentResolver.openOutputStream(uri, "wt");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to discard the partial backup: " + e.getClass().getSimpleName());
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * @param total the number of entries, -1 if not known
+     */
+    private static void sendProgress(CallbackContext callbackContext, int done, int total) {
+        JSONObject progress = new JSONObject();
+        try {
+            progress.put("done", done);
+            if (total >= 0) {
+                progress.put("total", total);
+            }
+            JSONObject result = new JSONObject();
+            result.put("progress", progress);
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result);
+            pluginResult.setKeepCallback(true);
+            callbackContext.sendPluginResult(pluginResult);
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    private static void fail(CallbackContext callbackContext, String operation, Exception e) {
+        Log.e(TAG, "Failed to " + operation + ": " + e.getClass().getSimpleName());
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Reads many entries without a prompt for the readAll action, e.g. to fill a cache at startup.
+ *
+ * Only entries saved without asking for a fingerprint can be read, as recorded in each entry by
+ * the save, and only if their key does not require authenticating either; the others are reported
+ * as skipped. Entries saved by older versions do not record it and are skipped too. The entries
+ * are read from the store first, then decrypted by up to {@link #MAX_WORKERS} tasks on the
+ * executor at once, each with its own cipher, since every decryption waits on the key store. Up
+ * to {@link #CHUNK_SIZE} values are sent per result, so a large read reaches the caller in parts.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+class FingerprintBulkReader {
+
+    private static final String TAG = "FingerprintBulkReader";
+    static final int CHUNK_SIZE = 100;
+    static final int MAX_WORKERS = 4;
+
+    private final FingerprintStore mStore;
+    private final KeyStore mKeyStore;
+    private final String mBaseAlias;
+    private final Executor mExecutor;
+
+    /**
+     * @param baseAlias the plugin's key alias, which the entries without a key alias use
+     */
+    FingerprintBulkReader(FingerprintStore store, KeyStore keyStore, String baseAlias,
+                          Executor executor) {
+        mStore = store;
+        mKeyStore = keyStore;
+        mBaseAlias = baseAlias;
+        mExecutor = executor;
+    }
+
+    /**
+     * Sends {values, more: true} results while it runs, keeping the callback, and
+     * {values, missing, skipped, failed} at the end: the keys with no entry or an expired one,
+     * the ones that need a prompt, and the ones that could not be decrypted.
+     *
+     * @param keys   the keys to read, {@code null} to read the ones starting with the prefix
+     * @param prefix the prefix, which opens every shard
+     * @return {@code false} if the read failed
+     */
+    boolean readAll(List<String> keys, String prefix, CallbackContext callbackContext) {
+        try {
+            if (keys == null) {
+                keys = new ArrayList<String>();
+                for (String key : mStore.keys()) {
+                    if (key.startsWith(prefix)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            JSONArray missing = new JSONArray();
+            JSONArray skipped = new JSONArray();
+            JSONArray failed = new JSONArray();
+            List<String> readKeys = new ArrayList<String>(keys.size());
+            List<FingerprintStore.Entry> entries =
+                    new ArrayList<FingerprintStore.Entry>(keys.size());
+            List<SecretKey> secretKeys = new ArrayList<SecretKey>(keys.size());
+            Map<String, SecretKey> keysByAlias = new HashMap<String, SecretKey>();
+            long now = System.currentTimeMillis();
+            for (String key : keys) {
+                FingerprintStore.Entry entry = mStore.get(key);
+                if (entry == null || mStore.isExpired(key, now)) {
+                    missing.put(key);
+                    continue;
+                }
+                if (entry.authRequired) {
+                    // Saved behind a prompt, even if its key was created without one.
+                    skipped.put(key);
+                    continue;
+                }
+                String alias = entry.alias != null ? entry.alias : mBaseAlias;
+                if (!keysByAlias.containsKey(alias)) {
+                    long keyStoreStart = System.nanoTime();
+                    SecretKey secretKey = FingerprintStore.getSecretKey(mKeyStore, alias);
+                    keysByAlias.put(alias, secretKey == null
+                            || KeyRotation.requiresAuthentication(secretKey) ? null : secretKey);
+                    FingerprintMetrics.recordStage(FingerprintMetrics.Stage.KEYSTORE,
+                            keyStoreStart);
+                }
+                SecretKey secretKey = keysByAlias.get(alias);
+                if (secretKey == null) {
+                    skipped.put(key);
+                    continue;
+                }
+                readKeys.add(key);
+                entries.add(entry);
+                secretKeys.add(secretKey);
+            }
+
+            Cipher[] ciphers = new Cipher[Math.min(MAX_WORKERS, Math.max(1, entries.size()))];
+            for (int i = 0; i < ciphers.length; i++) {
+                ciphers[i] = FingerprintAuthAux.createCipher();
+            }
+            String[] values = new String[entries.size()];
+            for (int start = 0; start < entries.size(); start += CHUNK_SIZE) {
+                int end = Math.min(entries.size(), start + CHUNK_SIZE);
+                long cryptoStart = System.nanoTime();
+                decrypt(entries, secretKeys, values, start, end, ciphers);
+                FingerprintMetrics.recordStage(FingerprintMetrics.Stage.CRYPTO, cryptoStart);
+                JSONObject chunk = new JSONObject();
+                for (int i = start; i < end; i++) {
+                    if (values[i] != null) {
+                        chunk.put(readKeys.get(i), values[i]);
+                    } else {
+                        failed.put(readKeys.get(i));
+                    }
+                    values[i] = null;
+                }
+                JSONObject result = new JSONObject();
+                result.put("values", chunk);
+                if (end < entries.size()) {
+                    result.put("more", true);
+                    PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result);
+                    pluginResult.setKeepCallback(true);
+                    callbackContext.sendPluginResult(pluginResult);
+                    continue;
+                }
+                sendLast(callbackContext, result, missing, skipped, failed);
+                return true;
+            }
+            sendLast(callbackContext, new JSONObject().put("values", new JSONObject()), missing,
+                    skipped, failed);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read: " + e.getClass().getSimpleName());
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+            return false;
+        }
+    }
+
+    private static void sendLast(CallbackContext callbackContext, JSONObject result,
+                                 JSONArray missing, JSONArray skipped, JSONArray failed)
+            throws JSONException {
+        result.put("missing", missing);
+        result.put("skipped", skipped);
+        result.put("failed", failed);
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
+    }
+
+    /**
+     * Decrypts the entries from start to end into values, leaving {@code null} for the ones that
+     * fail. Each worker takes the next entry left until none is, so slow entries do not hold up
+     * the others.
+     */
+    private void decrypt(final List<FingerprintStore.Entry> entries,
+                         final List<SecretKey> secretKeys, final String[] values, int start,
+                         final int end, Cipher[] ciphers) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger(start);
+        int workers = Math.min(ciphers.length, end - start);
+        final CountDownLatch finished = new CountDownLatch(workers);
+        for (int w = 0; w < workers; w++) {
+            final Cipher cipher = ciphers[w];
+            Runnable worker = new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = next.getAndIncrement(); i < end; i = next.getAndIncrement()) {
+                            values[i] = decrypt(cipher, secretKeys.get(i), entries.get(i));
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            };
+            if (w == workers - 1) {
+                // The calling thread does its share instead of only waiting.
+                worker.run();
+            } else {
+                mExecutor.execute(worker);
+            }
+        }
+        finished.await();
+    }
+
+    /**
+     * @return the value of the entry, or {@code null} if it could not be decrypted
+     */
+    private static String decrypt(Cipher cipher, SecretKey secretKey,
+                                  FingerprintStore.Entry entry) {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(entry.iv));
+            byte[] decrypted = cipher.doFinal(entry.cipherText);
+            byte[] value = FingerprintAuthAux.decompressValue(entry, decrypted);
+            String result = new String(value);
+            FingerprintAuthAux.zero(decrypted);
+            FingerprintAuthAux.zero(value);
+            return result;
+        } catch (GeneralSecurityException e) {
+            LOG.e(TAG, e.getClass().getSimpleName());
+        } catch (DataFormatException e) {
+            LOG.e(TAG, e.getClass().getSimpleName());
+        }
+        return null;
+    }
+}
@@ -20,8 +20,11 @@ public enum FingerprintError {
     FingerprintSecretKeyNotFound("-7","Key not found"),
     FingerprintCancelledByUser("-8","canceled by user"),
     FingerprintLockedOut("-10","Fingerprint is locked out"),
+    FingerprintTimeout("-11","Authentication timed out"),
+    FingerprintCancelledByApp("-12","canceled by the app"),
     FingerprintSaveIllegalBlockSize("-4", "Unable to save value"),
-    FingerprintInvalidateKey("-15", "Key has been invalidated");
+    FingerprintInvalidateKey("-15", "Key has been invalidated"),
+    FingerprintKeyRequiresAuthentication("-16", "Key requires authentication for every use");
 
 
     private String errorCode;
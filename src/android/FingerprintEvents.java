@@ -0,0 +1,115 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.os.SystemClock;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Streams what the sensor reports to JS as it happens, over the callback kept alive by the
+ * subscribeEvents action, so an app can react before the dialog's own delays are over. Key
+ * rotations that stopped on a failure are reported the same way, so the app can try them again.
+ *
+ * Nothing is built or sent while nobody is subscribed.
+ */
+public class FingerprintEvents {
+
+    private static final String TAG = "FingerprintEvents";
+
+    public enum Type {
+        ARMED("armed"),
+        HELP("help"),
+        FAILED("failed"),
+        SUCCESS("success"),
+        ERROR("error"),
+        ROTATION_FAILED("rotationFailed");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+    }
+
+    private static volatile CallbackContext sCallbackContext;
+
+    private FingerprintEvents() {
+    }
+
+    /**
+     * Sends the events to the given callback from now on, ending the previous subscription.
+     */
+    public static void subscribe(CallbackContext callbackContext) {
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+        CallbackContext previous;
+        synchronized (FingerprintEvents.class) {
+            previous = sCallbackContext;
+            sCallbackContext = callbackContext;
+        }
+        release(previous);
+    }
+
+    public static void unsubscribe() {
+        CallbackContext previous;
+        synchronized (FingerprintEvents.class) {
+            previous = sCallbackContext;
+            sCallbackContext = null;
+        }
+        release(previous);
+    }
+
+    /**
+     * Lets go of a subscription without calling back into JS.
+     */
+    private static void release(CallbackContext callbackContext) {
+        if (callbackContext != null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+        }
+    }
+
+    public static boolean isSubscribed() {
+        return sCallbackContext != null;
+    }
+
+    public static void send(Type type) {
+        send(type, 0, null);
+    }
+
+    public static void send(Type type, int code, CharSequence message) {
+        send(type, code, message, null);
+    }
+
+    /**
+     * Sends {type, code, message, keyGroup, timeMillis} to the subscriber, if any. keyGroup is
+     * only set for the events of a key group. timeMillis is the elapsed realtime at which the
+     * event happened.
+     */
+    public static void send(Type type, int code, CharSequence message, String keyGroup) {
+        CallbackContext callbackContext = sCallbackContext;
+        if (callbackContext == null) {
+            return;
+        }
+        JSONObject event = new JSONObject();
+        try {
+            event.put("type", type.label);
+            event.put("code", code);
+            if (message != null) {
+                event.put("message", message.toString());
+            }
+            if (keyGroup != null) {
+                event.put("keyGroup", keyGroup);
+            }
+            event.put("timeMillis", SystemClock.elapsedRealtime());
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, event);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+}
@@ -0,0 +1,241 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Load driver for the runLoadTest action: fires a random mix of save, verify, has and delete
+ * requests through {@link FingerprintAuth#execute} and reports throughput and latency per action.
+ *
+ * Requests are issued from a single thread, the way the bridge delivers them, keeping up to
+ * {@code concurrency} of them outstanding, so prompts queue and coalesce like they do for an app
+ * that does not wait for its callbacks. It is meant to run with the simulated sensor, which
+ * answers the prompts on its script.
+ *
+ * The requests bypass the bridge: they are executed from a thread of the test, next to the
+ * bridge's, and each one sets the static callback of the plugin. The plugin refuses to start a
+ * run while one of the app's prompts or transactions is in progress, or another run is, but the
+ * app must not call the plugin while it runs.
+ *
+ * Options, all optional: operations (default 200), concurrency (4), keys (8), valueSize (32),
+ * authRequired (false), seed, and mix, the relative weight of each action (default
+ * {save: 1, verify: 1, has: 4, delete: 1}).
+ */
+class FingerprintLoadTest implements Runnable {
+
+    private static final String TAG = "FingerprintLoadTest";
+    private static final String[] ACTIONS = {"save", "verify", "has", "delete"};
+    private static final int SAVE = 0;
+    private static final int VERIFY = 1;
+    private static final int DELETE = 3;
+    private static final int[] DEFAULT_MIX = {1, 1, 4, 1};
+    private static final String KEY_PREFIX = "loadTest";
+    /**
+     * How long to wait for an outstanding request before giving up on the run
+     */
+    private static final long REQUEST_TIMEOUT_SECONDS = 60;
+
+    private final FingerprintAuth mPlugin;
+    private final CallbackContext mCallbackContext;
+    private final int mOperations;
+    private final int mConcurrency;
+    private final int mKeys;
+    private final String mValue;
+    private final boolean mAuthRequired;
+    private final Random mRandom;
+    private final int[] mMix = new int[ACTIONS.length];
+    private int mMixTotal;
+
+    private final FingerprintMetrics.Histogram[] mLatency =
+            new FingerprintMetrics.Histogram[ACTIONS.length];
+    private final AtomicLongArray mSuccess = new AtomicLongArray(ACTIONS.length);
+    private final AtomicLongArray mFailure = new AtomicLongArray(ACTIONS.length);
+    private final ExecutorService mBridge = Executors.newSingleThreadExecutor();
+    private Semaphore mOutstanding;
+    private int mRequestCount;
+
+    FingerprintLoadTest(FingerprintAuth plugin, JSONObject options,
+                        CallbackContext callbackContext) {
+        if (options == null) {
+            options = new JSONObject();
+        }
+        mPlugin = plugin;
+        mCallbackContext = callbackContext;
+        mOperations = Math.max(0, options.optInt("operations", 200));
+        mConcurrency = Math.max(1, options.optInt("concurrency", 4));
+        mKeys = Math.max(1, options.optInt("keys", 8));
+        char[] value = new char[Math.max(1, options.optInt("valueSize", 32))];
+        Arrays.fill(value, 'x');
+        mValue = new String(value);
+        mAuthRequired = options.optBoolean("authRequired", false);
+        mRandom = options.has("seed") ? new Random(options.optLong("seed")) : new Random();
+        JSONObject mix = options.optJSONObject("mix");
+        for (int i = 0; i < ACTIONS.length; i++) {
+            mMix[i] = mix == null ? DEFAULT_MIX[i] : Math.max(0, mix.optInt(ACTIONS[i], 0));
+            mMixTotal += mMix[i];
+            mLatency[i] = new FingerprintMetrics.Histogram();
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean completed = true;
+        long elapsedNanos = 0;
+        try {
+            // Save every key once, outside of the measurement, so verify has something to read.
+            mOutstanding = new Semaphore(mConcurrency);
+            for (int key = 0; key < mKeys && completed; key++) {
+                completed = issue(SAVE, key, false);
+            }
+            completed = completed && drain();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < mOperations && completed && mMixTotal > 0; i++) {
+                completed = issue(nextAction(), mRandom.nextInt(mKeys), true);
+            }
+            completed = completed && drain();
+            elapsedNanos = System.nanoTime() - start;
+
+            for (int key = 0; key < mKeys && completed; key++) {
+                completed = issue(DELETE, key, false);
+            }
+            completed = completed && drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed = false;
+        } finally {
+            mBridge.shutdown();
+        }
+        try {
+            mCallbackContext.success(createReport(completed, elapsedNanos));
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+            mCallbackContext.error(e.getMessage());
+        }
+    }
+
+    private int nextAction() {
+        int pick = mRandom.nextInt(mMixTotal);
+        for (int i = 0; i < ACTIONS.length; i++) {
+            pick -= mMix[i];
+            if (pick < 0) {
+                return i;
+            }
+        }
+        return ACTIONS.length - 1;
+    }
+
+    /**
+     * Hands a request to the bridge thread once fewer than {@code concurrency} are outstanding.
+     *
+     * @return {@code false} if no request completed within the timeout
+     */
+    private boolean issue(final int action, int key, final boolean measured)
+            throws InterruptedException {
+        if (!mOutstanding.tryAcquire(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            return false;
+        }
+        final JSONArray args = new JSONArray();
+        args.put(KEY_PREFIX + key);
+        if (action == SAVE) {
+            args.put(mValue);
+            args.put(mAuthRequired);
+        } else if (action == VERIFY) {
+            args.put("Load test");
+        }
+        final LoadCallbackContext callbackContext =
+                new LoadCallbackContext(action, measured, mRequestCount++);
+        mBridge.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mPlugin.execute(ACTIONS[action], args, callbackContext);
+                } catch (Exception e) {
+                    LOG.e(TAG, e.getMessage(), e);
+                    callbackContext.error(String.valueOf(e.getMessage()));
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Waits for all outstanding requests.
+     *
+     * @return {@code false} if they did not complete within the timeout
+     */
+    private boolean drain() throws InterruptedException {
+        if (!mOutstanding.tryAcquire(mConcurrency, REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            return false;
+        }
+        mOutstanding.release(mConcurrency);
+        return true;
+    }
+
+    private JSONObject createReport(boolean completed, long elapsedNanos) throws JSONException {
+        JSONObject actions = new JSONObject();
+        long total = 0;
+        for (int i = 0; i < ACTIONS.length; i++) {
+            JSONObject actionJson = new JSONObject();
+            actionJson.put("success", mSuccess.get(i));
+            actionJson.put("failure", mFailure.get(i));
+            actionJson.put("latency", mLatency[i].toJSON());
+            actions.put(ACTIONS[i], actionJson);
+            total += mSuccess.get(i) + mFailure.get(i);
+        }
+        JSONObject report = new JSONObject();
+        report.put("completed", completed);
+        report.put("operations", total);
+        report.put("concurrency", mConcurrency);
+        report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        report.put("throughput", elapsedNanos > 0 ? total * 1e9 / elapsedNanos : 0);
+        report.put("actions", actions);
+        return report;
+    }
+
+    /**
+     * Records the first final result of one request instead of sending it to the web view.
+     */
+    private final class LoadCallbackContext extends CallbackContext {
+
+        private final int mAction;
+        private final boolean mMeasured;
+        private final long mStartNanos = System.nanoTime();
+        private final AtomicBoolean mDone = new AtomicBoolean();
+
+        LoadCallbackContext(int action, boolean measured, int requestId) {
+            super(TAG + requestId, mPlugin.webView);
+            mAction = action;
+            mMeasured = measured;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getKeepCallback() || !mDone.compareAndSet(false, true)) {
+                return;
+            }
+            if (mMeasured) {
+                mLatency[mAction].record(System.nanoTime() - mStartNanos);
+                if (pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+                    mSuccess.incrementAndGet(mAction);
+                } else {
+                    mFailure.incrementAndGet(mAction);
+                }
+            }
+            mOutstanding.release();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.apache.cordova.LOG;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remembers fingerprint sensor lockouts, so that requests made while the sensor is locked out
+ * fail right away instead of building the dialog and waiting for the sensor to report the error.
+ *
+ * The lockout clock is persisted, so it survives a process restart during the cooldown.
+ */
+public class FingerprintLockout {
+
+    private static final String TAG = "FingerprintLockout";
+    private static final String SHARED_PREFS_NAME = "FingerSPrefLockout";
+    private static final String LOCKED_OUT_AT = "lockedOutAt";
+    private static final String PERMANENT = "permanent";
+
+    /**
+     * The platform locks the sensor for 30 seconds after too many failed attempts.
+     */
+    static final long TEMPORARY_LOCKOUT_MILLIS = 30000;
+    /**
+     * A permanent lockout only ends once the user unlocks the device with their credential, which
+     * is not observable from here, so the sensor is probed again after this interval.
+     */
+    static final long PERMANENT_LOCKOUT_RECHECK_MILLIS = 60000;
+
+    private final SharedPreferences mSharedPref;
+    private long mLockedOutAt;
+    private boolean mPermanent;
+
+    public FingerprintLockout(Context context) {
+        mSharedPref = context.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+        mLockedOutAt = mSharedPref.getLong(LOCKED_OUT_AT, 0);
+        mPermanent = mSharedPref.getBoolean(PERMANENT, false);
+    }
+
+    /**
+     * Records a lockout reported by the sensor.
+     *
+     * @param permanent {@code true} if the sensor reported a permanent lockout
+     */
+    public synchronized void onLockout(boolean permanent) {
+        mLockedOutAt = System.currentTimeMillis();
+        mPermanent = permanent;
+        mSharedPref.edit()
+                .putLong(LOCKED_OUT_AT, mLockedOutAt)
+                .putBoolean(PERMANENT, mPermanent)
+                .apply();
+        LOG.i(TAG, permanent ? "Sensor permanently locked out" : "Sensor temporarily locked out");
+    }
+
+    /**
+     * Forgets any recorded lockout, e.g. after a successful authentication.
+     */
+    public synchronized void clear() {
+        if (mLockedOutAt == 0) {
+            return;
+        }
+        mLockedOutAt = 0;
+        mPermanent = false;
+        mSharedPref.edit().clear().apply();
+    }
+
+    /**
+     * @return the remaining cooldown in milliseconds, or {@code 0} if the sensor is not locked out
+     */
+    public synchronized long getRemainingMillis() {
+        if (mLockedOutAt == 0) {
+            return 0;
+        }
+        long elapsed = System.currentTimeMillis() - mLockedOutAt;
+        long duration = mPermanent ? PERMANENT_LOCKOUT_RECHECK_MILLIS : TEMPORARY_LOCKOUT_MILLIS;
+        // A clock set backwards must not extend the lockout forever.
+        if (elapsed < 0 || elapsed >= duration) {
+            return 0;
+        }
+        return duration - elapsed;
+    }
+
+    public synchronized boolean isLockedOut() {
+        return getRemainingMillis() > 0;
+    }
+
+    /**
+     * @return the lockout state, used as the {@code ext} object of a locked out error
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject resultJson = new JSONObject();
+        try {
+            resultJson.put("permanent", mPermanent);
+            resultJson.put("remainingMillis", getRemainingMillis());
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        return resultJson;
+    }
+}
@@ -0,0 +1,301 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.os.SystemClock;
+
+import org.apache.cordova.LOG;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the plugin actions, exported with the getMetrics action.
+ *
+ * Recording only updates preallocated atomic counters, so it takes no locks and allocates
+ * nothing on the request path. Exporting builds the JSON.
+ */
+public class FingerprintMetrics {
+
+    private static final String TAG = "FingerprintMetrics";
+
+    /**
+     * Actions whose end-to-end latency and outcome are recorded. The other actions, such as
+     * isAvailable and biometricType, are not.
+     */
+    public enum Action {
+        SAVE("save"),
+        VERIFY("verify"),
+        HAS("has"),
+        DELETE("delete"),
+        DELETE_MANY("deleteMany"),
+        DELETE_BY_PREFIX("deleteByPrefix"),
+        MOVE("move"),
+        TRANSACT("transact"),
+        READ_ALL("readAll");
+
+        private final String label;
+
+        Action(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Parts of an action whose latency is recorded separately
+     */
+    public enum Stage {
+        KEYSTORE("keystore"),
+        CRYPTO("crypto"),
+        STORAGE("storage"),
+        USER_WAIT("userWait"),
+        COMPRESSION("compression");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Action[] ACTIONS = Action.values();
+    private static final Stage[] STAGES = Stage.values();
+    private static final FingerprintError[] ERRORS = FingerprintError.values();
+    private static final InitEncryptionResult[] INIT_RESULTS = InitEncryptionResult.values();
+
+    private static final Histogram[] sActionLatency = new Histogram[ACTIONS.length];
+    private static final Histogram[] sStageLatency = new Histogram[STAGES.length];
+    private static final AtomicLongArray sActionSuccess = new AtomicLongArray(ACTIONS.length);
+    private static final AtomicLongArray sActionFailure = new AtomicLongArray(ACTIONS.length);
+    private static final AtomicLongArray sErrors = new AtomicLongArray(ERRORS.length);
+    private static final AtomicLongArray sInitResults = new AtomicLongArray(INIT_RESULTS.length);
+    /**
+     * Values that compression was tried on, the ones it made smaller, and their sizes before and
+     * as encrypted
+     */
+    private static final AtomicLong sCompressionValues = new AtomicLong();
+    private static final AtomicLong sCompressionCompressed = new AtomicLong();
+    private static final AtomicLong sCompressionRawBytes = new AtomicLong();
+    private static final AtomicLong sCompressionStoredBytes = new AtomicLong();
+    private static volatile long sResetAt = SystemClock.elapsedRealtime();
+
+    static {
+        for (int i = 0; i < sActionLatency.length; i++) {
+            sActionLatency[i] = new Histogram();
+        }
+        for (int i = 0; i < sStageLatency.length; i++) {
+            sStageLatency[i] = new Histogram();
+        }
+    }
+
+    private FingerprintMetrics() {
+    }
+
+    /**
+     * Records the outcome of an action that started at {@code startNanos}, as returned by
+     * {@link System#nanoTime()}.
+     */
+    public static void recordAction(Action action, long startNanos, boolean success) {
+        sActionLatency[action.ordinal()].record(System.nanoTime() - startNanos);
+        if (success) {
+            sActionSuccess.incrementAndGet(action.ordinal());
+        } else {
+            sActionFailure.incrementAndGet(action.ordinal());
+        }
+    }
+
+    /**
+     * Records the duration of a stage that started at {@code startNanos}, as returned by
+     * {@link System#nanoTime()}.
+     */
+    public static void recordStage(Stage stage, long startNanos) {
+        sStageLatency[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public static void recordError(FingerprintError error) {
+        sErrors.incrementAndGet(error.ordinal());
+    }
+
+    public static void recordInitResult(InitEncryptionResult result) {
+        sInitResults.incrementAndGet(result.ordinal());
+    }
+
+    /**
+     * Records the size of a value that compression was tried on, before and after. A value that
+     * did not get smaller is stored as it is.
+     */
+    public static void recordCompression(int rawBytes, int storedBytes) {
+        sCompressionValues.incrementAndGet();
+        if (storedBytes < rawBytes) {
+            sCompressionCompressed.incrementAndGet();
+        }
+        sCompressionRawBytes.addAndGet(rawBytes);
+        sCompressionStoredBytes.addAndGet(storedBytes);
+    }
+
+    public static void reset() {
+        for (Histogram histogram : sActionLatency) {
+            histogram.reset();
+        }
+        for (Histogram histogram : sStageLatency) {
+            histogram.reset();
+        }
+        resetCounters(sActionSuccess);
+        resetCounters(sActionFailure);
+        resetCounters(sErrors);
+        resetCounters(sInitResults);
+        sCompressionValues.set(0);
+        sCompressionCompressed.set(0);
+        sCompressionRawBytes.set(0);
+        sCompressionStoredBytes.set(0);
+        sResetAt = SystemClock.elapsedRealtime();
+    }
+
+    private static void resetCounters(AtomicLongArray counters) {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Exports all counters and histograms. Latencies are in microseconds.
+     */
+    public static JSONObject toJSON() {
+        JSONObject resultJson = new JSONObject();
+        try {
+            JSONObject actions = new JSONObject();
+            for (Action action : ACTIONS) {
+                JSONObject actionJson = new JSONObject();
+                actionJson.put("success", sActionSuccess.get(action.ordinal()));
+                actionJson.put("failure", sActionFailure.get(action.ordinal()));
+                actionJson.put("latency", sActionLatency[action.ordinal()].toJSON());
+                actions.put(action.label, actionJson);
+            }
+            JSONObject stages = new JSONObject();
+            for (Stage stage : STAGES) {
+                stages.put(stage.label, sStageLatency[stage.ordinal()].toJSON());
+            }
+            resultJson.put("periodMillis", SystemClock.elapsedRealtime() - sResetAt);
+            resultJson.put("actions", actions);
+            resultJson.put("stages", stages);
+            resultJson.put("errors", countersToJSON(sErrors, ERRORS));
+            resultJson.put("initCipher", countersToJSON(sInitResults, INIT_RESULTS));
+            JSONObject compression = new JSONObject();
+            compression.put("values", sCompressionValues.get());
+            compression.put("compressed", sCompressionCompressed.get());
+            compression.put("rawBytes", sCompressionRawBytes.get());
+            compression.put("storedBytes", sCompressionStoredBytes.get());
+            resultJson.put("compression", compression);
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        return resultJson;
+    }
+
+    private static JSONObject countersToJSON(AtomicLongArray counters, Enum<?>[] names)
+            throws JSONException {
+        JSONObject countersJson = new JSONObject();
+        for (Enum<?> name : names) {
+            countersJson.put(name.name(), counters.get(name.ordinal()));
+        }
+        return countersJson;
+    }
+
+    /**
+     * Log-linear latency histogram in the style of HdrHistogram: values below 8 us get their own
+     * bucket, larger values are bucketed by power of two with 8 linear sub-buckets each, which
+     * keeps every bucket within 12.5% of its value. Values are clamped to 2^32 - 1 us, about 71.6
+     * minutes.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_MAGNITUDE = 31;
+        private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+        static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mTotalCount = new AtomicLong();
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        void record(long durationNanos) {
+            long micros = Math.min(Math.max(durationNanos / 1000, 0), MAX_VALUE);
+            mCounts.incrementAndGet(bucketOf(micros));
+            mTotalCount.incrementAndGet();
+            mTotalMicros.addAndGet(micros);
+            long max = mMaxMicros.get();
+            while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+                max = mMaxMicros.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mCounts.set(i, 0);
+            }
+            mTotalCount.set(0);
+            mTotalMicros.set(0);
+            mMaxMicros.set(0);
+        }
+
+        static int bucketOf(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+        }
+
+        /**
+         * @return the highest value that falls into the given bucket
+         */
+        static long highestValueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        private long percentile(long[] counts, long total, double percentile) {
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return highestValueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+                total += counts[i];
+                if (counts[i] > 0) {
+                    JSONArray bucket = new JSONArray();
+                    bucket.put(highestValueOf(i));
+                    bucket.put(counts[i]);
+                    buckets.put(bucket);
+                }
+            }
+            JSONObject histogramJson = new JSONObject();
+            histogramJson.put("count", total);
+            histogramJson.put("mean", mTotalMicros.get() / Math.max(1, mTotalCount.get()));
+            histogramJson.put("p50", percentile(counts, total, 50));
+            histogramJson.put("p90", percentile(counts, total, 90));
+            histogramJson.put("p99", percentile(counts, total, 99));
+            histogramJson.put("max", mMaxMicros.get());
+            histogramJson.put("buckets", buckets);
+            return histogramJson;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.CancellationSignal;
+
+/**
+ * Where the dialog gets fingerprint authentication from: the device sensor, or a simulated one
+ * selected in the app configuration for tests.
+ */
+public interface FingerprintSensor {
+
+    boolean isHardwareDetected();
+
+    boolean hasEnrolledFingerprints();
+
+    /**
+     * Starts listening for a fingerprint, reporting to the callback on the main thread until it
+     * gets a success or an error, or the signal is cancelled.
+     */
+    void authenticate(FingerprintManager.CryptoObject cryptoObject,
+                      CancellationSignal cancellationSignal,
+                      FingerprintManager.AuthenticationCallback callback);
+}
@@ -0,0 +1,1506 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The encrypted entries and the key store operations behind save, verify, has, delete and move.
+ *
+ * Each entry is kept as two strings, {@code value_<key>} with the Base64 cipher text and
+ * {@code iv_<key>} with the Base64 IV, plus {@code meta_<key>} with a small JSON object
+ * for the entries that need more: {@code "a"}, the alias of the key of a key group the entry was
+ * encrypted with, {@code "e"}, the wall clock time in milliseconds at which the entry expires,
+ * {@code "z"}, set if the value was compressed before it was encrypted, and {@code "n"}, set if
+ * the value was saved without asking for a fingerprint, so it may be read without a prompt.
+ * Entries without {@code "n"}, including all entries of older versions, count as needing one,
+ * whatever the attributes of their key. Besides
+ * {@link SharedPreferences}, {@link Base64} and org.json this class only uses Java APIs, so it
+ * can be compiled and benchmarked on a plain JVM against a software key store (see
+ * {@code benchmark/}). Callers create and initialize the {@link Cipher}s and report errors.
+ *
+ * The entries are spread by the hash of their key over {@link #SHARD_COUNT} preference files,
+ * {@code <name>_<n>}, each opened on first use, so a lookup only loads the entries that share
+ * its file. A small index file, {@code <name>_index}, holds the number of shards and the earliest
+ * expiry time in each, so the sweeper only opens the shards with something to remove. The single
+ * file of older versions is moved into the shards on first use.
+ *
+ * Older versions named the strings {@code fing<key>}, {@code fing_iv<key>} and
+ * {@code fing_meta<key>}, so the value of a key starting with {@code _iv} or {@code _meta} was
+ * taken for the IV or the metadata of another key. None of the prefixes used now starts another,
+ * and the strings of older versions are renamed as they are moved, or once for the shards they
+ * wrote, which the index tells by its format.
+ *
+ * The index also holds a {@link PresenceFilter} of the stored keys, so looking up a key that was
+ * never saved usually opens no shard. Deleted keys stay in the filter until it is built again,
+ * which happens once it holds more keys than it was sized for.
+ *
+ * With a {@link FingerprintStoreSync}, the files can be shared by several processes of the app:
+ * writes lock out the other processes and a file is loaded again once another process changed it.
+ *
+ * A {@link Transaction} that touches several shards is first written to the index as a journal,
+ * then to the shards, and the journal is removed. A journal left by a crash is written again
+ * when the store is opened, and readers in other processes wait for one being written, so the
+ * changes are seen all together or not at all.
+ */
+public class FingerprintStore {
+
+    static final String VALUE_PREFIX = "value_";
+    static final String IV_PREFIX = "iv_";
+    static final String META_PREFIX = "meta_";
+    private static final String LEGACY_VALUE_PREFIX = "fing";
+    private static final String LEGACY_IV_PREFIX = "fing_iv";
+    private static final String LEGACY_META_PREFIX = "fing_meta";
+    private static final String META_ALIAS = "a";
+    private static final String META_EXPIRES_AT = "e";
+    private static final String META_COMPRESSED = "z";
+    private static final String META_NO_AUTH = "n";
+
+    static final int SHARD_COUNT = 16;
+    private static final String INDEX_SUFFIX = "_index";
+    private static final String INDEX_SHARDS = "shards";
+    /**
+     * Format of the shards, 1 until their strings were renamed to the current prefixes
+     */
+    private static final String INDEX_FORMAT = "format";
+    private static final int FORMAT = 2;
+    private static final String INDEX_EXPIRES_AT_PREFIX = "expiresAt_";
+    private static final String INDEX_PRESENCE = "presence";
+    private static final String INDEX_PRESENCE_COUNT = "presenceCount";
+    private static final int PRESENCE_MIN_CAPACITY = 256;
+    private static final String INDEX_JOURNAL = "journal";
+    private static final String OP_KEY = "k";
+    private static final String OP_VALUE = "v";
+    private static final String OP_IV = "i";
+    private static final String OP_META = "m";
+
+    /**
+     * Opens a preference file by name, e.g. with {@code Context.getSharedPreferences}.
+     *
+     * With a {@link FingerprintStoreSync} it is called again for a file another process changed,
+     * and has to load the file from disk again, as {@code Context.MODE_MULTI_PROCESS} does.
+     */
+    public interface PreferencesOpener {
+        SharedPreferences open(String name);
+    }
+
+    /**
+     * Told which entries another process changed, e.g. to drop what was read from them
+     */
+    public interface ChangeListener {
+        void onEntriesChanged(Set<String> keys);
+    }
+
+    private final PreferencesOpener mOpener;
+    private final String mName;
+    private final FingerprintStoreSync mSync;
+    /**
+     * Versions of the index, in slot 0, and of the shards, in slot index + 1, as loaded by this
+     * process
+     */
+    private final int[] mLoadedVersions = new int[FingerprintStoreSync.SLOTS];
+    private SharedPreferences mIndex;
+    private SharedPreferences[] mShards;
+    private PresenceFilter mPresence;
+    private ChangeListener mChangeListener;
+
+    /**
+     * @param name name of the preference file of older versions, which the shard and index file
+     *             names start with
+     */
+    public FingerprintStore(PreferencesOpener opener, String name) {
+        this(opener, name, null);
+    }
+
+    /**
+     * @param sync coordinates the processes sharing the files, {@code null} if only this process
+     *             uses them
+     */
+    FingerprintStore(PreferencesOpener opener, String name, FingerprintStoreSync sync) {
+        mOpener = opener;
+        mName = name;
+        mSync = sync;
+    }
+
+    public synchronized void setChangeListener(ChangeListener listener) {
+        mChangeListener = listener;
+    }
+
+    /**
+     * Generates a key into the key store, e.g. the Android Key Store with a KeyGenParameterSpec
+     * naming its alias.
+     */
+    public static void createKey(KeyStore keyStore, KeyGenerator keyGenerator,
+                                 AlgorithmParameterSpec spec)
+            throws CertificateException, IOException, NoSuchAlgorithmException,
+            InvalidAlgorithmParameterException {
+        keyStore.load(null);
+        keyGenerator.init(spec);
+        keyGenerator.generateKey();
+    }
+
+    /**
+     * @return the key stored under the given alias, or {@code null} if there is none
+     */
+    public static SecretKey getSecretKey(KeyStore keyStore, String alias)
+            throws CertificateException, IOException, NoSuchAlgorithmException,
+            KeyStoreException, UnrecoverableKeyException {
+        keyStore.load(null);
+        return (SecretKey) keyStore.getKey(alias, null);
+    }
+
+    /**
+     * Opens the index, moving the entries of older versions into the shards the first time.
+     */
+    private synchronized void openIndex() {
+        if (mShards != null) {
+            return;
+        }
+        lock();
+        try {
+            mIndex = open(0, mName + INDEX_SUFFIX);
+            int shardCount = mIndex.getInt(INDEX_SHARDS, 0);
+            if (shardCount > 0) {
+                mShards = new SharedPreferences[shardCount];
+                if (mIndex.getInt(INDEX_FORMAT, 1) < FORMAT) {
+                    renameLegacyStrings();
+                }
+            } else {
+                mShards = new SharedPreferences[SHARD_COUNT];
+                moveLegacyEntries();
+            }
+            finishTransaction();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Moves the entries of the single file of older versions into the shards.
+     */
+    private void moveLegacyEntries() {
+        SharedPreferences legacy = mOpener.open(mName);
+        Map<String, ?> entries = legacy.getAll();
+        if (!entries.isEmpty()) {
+            SharedPreferences.Editor[] editors = new SharedPreferences.Editor[SHARD_COUNT];
+            for (Map.Entry<String, ?> entry : entries.entrySet()) {
+                String name = renamed(entry.getKey());
+                if (name == null || !(entry.getValue() instanceof String)) {
+                    continue;
+                }
+                int index = shardIndex(keyOf(name));
+                if (editors[index] == null) {
+                    editors[index] = shard(index).edit();
+                }
+                editors[index].putString(name, (String) entry.getValue());
+            }
+            for (int index = 0; index < SHARD_COUNT; index++) {
+                if (editors[index] != null) {
+                    commit(mShards[index], editors[index]);
+                }
+            }
+        }
+        SharedPreferences.Editor indexEditor = mIndex.edit();
+        indexEditor.putInt(INDEX_SHARDS, SHARD_COUNT);
+        indexEditor.putInt(INDEX_FORMAT, FORMAT);
+        if (!entries.isEmpty()) {
+            for (int index = 0; index < SHARD_COUNT; index++) {
+                if (mShards[index] != null) {
+                    putShardExpiresAt(indexEditor, index, findEarliestExpiresAt(index));
+                }
+            }
+        }
+        // The index is written before the old file is cleared, so a move that is cut short is
+        // done again.
+        commit(mIndex, indexEditor);
+        if (!entries.isEmpty()) {
+            legacy.edit().clear().commit();
+        }
+    }
+
+    /**
+     * Renames the strings of the shards written by versions that used the prefixes of the single
+     * file, one shard at a time. The renamed strings do not start with those prefixes, so a
+     * rename that is cut short is done again for the strings left.
+     */
+    private void renameLegacyStrings() {
+        for (int index = 0; index < mShards.length; index++) {
+            SharedPreferences shard = shard(index);
+            SharedPreferences.Editor editor = null;
+            for (Map.Entry<String, ?> entry : shard.getAll().entrySet()) {
+                String name = renamed(entry.getKey());
+                if (name == null || !(entry.getValue() instanceof String)) {
+                    continue;
+                }
+                if (editor == null) {
+                    editor = shard.edit();
+                }
+                editor.remove(entry.getKey());
+                editor.putString(name, (String) entry.getValue());
+            }
+            if (editor != null) {
+                commit(shard, editor);
+            }
+        }
+        SharedPreferences.Editor indexEditor = mIndex.edit();
+        indexEditor.putInt(INDEX_FORMAT, FORMAT);
+        commit(mIndex, indexEditor);
+    }
+
+    /**
+     * @return the current name of the string of older versions with the given name, or
+     * {@code null} if it is not part of an entry
+     */
+    private static String renamed(String legacyName) {
+        if (legacyName.startsWith(LEGACY_IV_PREFIX)) {
+            return IV_PREFIX + legacyName.substring(LEGACY_IV_PREFIX.length());
+        } else if (legacyName.startsWith(LEGACY_META_PREFIX)) {
+            return META_PREFIX + legacyName.substring(LEGACY_META_PREFIX.length());
+        } else if (legacyName.startsWith(LEGACY_VALUE_PREFIX)) {
+            return VALUE_PREFIX + legacyName.substring(LEGACY_VALUE_PREFIX.length());
+        }
+        return null;
+    }
+
+    /**
+     * @return the key of the entry the preference with the given name belongs to, or
+     * {@code null} if it is not part of an entry
+     */
+    private static String keyOf(String name) {
+        if (name.startsWith(IV_PREFIX)) {
+            return name.substring(IV_PREFIX.length());
+        } else if (name.startsWith(META_PREFIX)) {
+            return name.substring(META_PREFIX.length());
+        } else if (name.startsWith(VALUE_PREFIX)) {
+            return name.substring(VALUE_PREFIX.length());
+        }
+        return null;
+    }
+
+    private synchronized int shardIndex(String key) {
+        openIndex();
+        return (key.hashCode() & 0x7fffffff) % mShards.length;
+    }
+
+    private synchronized SharedPreferences shard(int index) {
+        if (mShards[index] == null) {
+            mShards[index] = open(index + 1, mName + "_" + index);
+        } else {
+            mShards[index] = refresh(index + 1, mName + "_" + index, mShards[index]);
+        }
+        return mShards[index];
+    }
+
+    private synchronized SharedPreferences index() {
+        openIndex();
+        mIndex = refresh(0, mName + INDEX_SUFFIX, mIndex);
+        return mIndex;
+    }
+
+    private SharedPreferences open(int slot, String fileName) {
+        if (mSync != null) {
+            mLoadedVersions[slot] = mSync.getVersion(slot);
+        }
+        return mOpener.open(fileName);
+    }
+
+    /**
+     * Loads the file in the given slot again if another process changed it since it was loaded,
+     * and tells the listener which entries changed.
+     *
+     * @return the file, as loaded
+     */
+    private SharedPreferences refresh(int slot, String fileName, SharedPreferences prefs) {
+        if (mSync == null) {
+            return prefs;
+        }
+        int version = mSync.getVersion(slot);
+        if (version == mLoadedVersions[slot]) {
+            return prefs;
+        }
+        mLoadedVersions[slot] = version;
+        Map<String, ?> before = prefs.getAll();
+        prefs = mOpener.open(fileName);
+        if (slot == 0) {
+            mPresence = null;
+        }
+        if (mChangeListener != null && slot > 0) {
+            Map<String, ?> after = prefs.getAll();
+            Set<String> keys = new HashSet<String>();
+            for (Map.Entry<String, ?> entry : before.entrySet()) {
+                if (!entry.getValue().equals(after.get(entry.getKey()))) {
+                    keys.add(keyOf(entry.getKey()));
+                }
+            }
+            for (String name : after.keySet()) {
+                if (!before.containsKey(name)) {
+                    keys.add(keyOf(name));
+                }
+            }
+            keys.remove(null);
+            if (!keys.isEmpty()) {
+                mChangeListener.onEntriesChanged(keys);
+            }
+        }
+        return prefs;
+    }
+
+    /**
+     * Keeps the other processes from writing until {@link #unlock()}. Writes lock before they
+     * read what they change, so that they read the latest version of it.
+     */
+    private void lock() {
+        if (mSync != null) {
+            try {
+                mSync.lock();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void unlock() {
+        if (mSync != null) {
+            try {
+                mSync.unlock();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the changes to disk, and tells the other processes the file changed.
+     */
+    private boolean commit(SharedPreferences prefs, SharedPreferences.Editor editor) {
+        boolean committed = editor.commit();
+        if (mSync != null) {
+            int slot = slotOf(prefs);
+            mLoadedVersions[slot] = mSync.noteChanged(slot);
+        }
+        return committed;
+    }
+
+    /**
+     * Writes the changes in the background, or to disk right away when other processes read the
+     * file.
+     */
+    private void apply(SharedPreferences prefs, SharedPreferences.Editor editor) {
+        if (mSync != null) {
+            commit(prefs, editor);
+        } else {
+            editor.apply();
+        }
+    }
+
+    private int slotOf(SharedPreferences prefs) {
+        if (prefs == mIndex) {
+            return 0;
+        }
+        for (int index = 0; index < mShards.length; index++) {
+            if (mShards[index] == prefs) {
+                return index + 1;
+            }
+        }
+        throw new IllegalArgumentException("Not a file of the store");
+    }
+
+    /**
+     * @return the presence filter, as stored in the index, or built from the keys of the shards if
+     * the index has none yet
+     */
+    private synchronized PresenceFilter presence() {
+        SharedPreferences indexPrefs = index();
+        if (mPresence == null) {
+            String bits = indexPrefs.getString(INDEX_PRESENCE, "");
+            if (bits.length() > 0) {
+                try {
+                    mPresence = PresenceFilter.fromBytes(Base64.decode(bits, Base64.NO_WRAP),
+                            indexPrefs.getInt(INDEX_PRESENCE_COUNT, 0));
+                } catch (IllegalArgumentException e) {
+                    // Built again below.
+                }
+            }
+            if (mPresence == null) {
+                lock();
+                try {
+                    PresenceFilter presence = buildPresence();
+                    savePresence(presence, false);
+                    mPresence = presence;
+                } finally {
+                    unlock();
+                }
+            }
+        }
+        return mPresence;
+    }
+
+    /**
+     * Opens every shard, which only happens once the filter is full or the index has none.
+     */
+    private PresenceFilter buildPresence() {
+        List<String> keys = keys();
+        PresenceFilter presence =
+                new PresenceFilter(Math.max(PRESENCE_MIN_CAPACITY, keys.size() * 2));
+        for (String key : keys) {
+            presence.add(key);
+        }
+        return presence;
+    }
+
+    /**
+     * @param sync {@code true} to write to disk before returning, {@code false} to write in the
+     *             background, ahead of the writes queued after it
+     */
+    private void savePresence(PresenceFilter presence, boolean sync) {
+        SharedPreferences indexPrefs = index();
+        SharedPreferences.Editor indexEditor = indexPrefs.edit();
+        putPresence(indexEditor, presence);
+        if (sync) {
+            commit(indexPrefs, indexEditor);
+        } else {
+            apply(indexPrefs, indexEditor);
+        }
+    }
+
+    private static void putPresence(SharedPreferences.Editor indexEditor,
+                                    PresenceFilter presence) {
+        indexEditor.putString(INDEX_PRESENCE,
+                Base64.encodeToString(presence.toBytes(), Base64.NO_WRAP));
+        indexEditor.putInt(INDEX_PRESENCE_COUNT, presence.getCount());
+    }
+
+    /**
+     * Adds a key to the presence filter before its entry is written, so that no reader finds the
+     * entry missing from the filter. The filter reaches the disk first even if the app is killed
+     * right after: it is written right away before an entry that is, and queued ahead of one that
+     * is written in the background, as those are written in order.
+     *
+     * @param sync {@code true} if the entry is written to disk before returning
+     */
+    private void notePresent(String key, boolean sync) {
+        PresenceFilter presence = presenceWith(Arrays.asList(key));
+        if (presence != null) {
+            savePresence(presence, sync);
+            mPresence = presence;
+        }
+    }
+
+    /**
+     * @return the presence filter with the given keys added, built again if it got full, or
+     * {@code null} if they were all possibly present already
+     */
+    private PresenceFilter presenceWith(Collection<String> keys) {
+        PresenceFilter presence = presence();
+        boolean changed = false;
+        for (String key : keys) {
+            changed |= presence.add(key);
+        }
+        if (presence.isFull()) {
+            presence = buildPresence();
+            for (String key : keys) {
+                presence.add(key);
+            }
+            changed = true;
+        }
+        return changed ? presence : null;
+    }
+
+    /**
+     * @return {@code false} if there is certainly no entry with the given key, without opening its
+     * shard
+     */
+    private synchronized boolean mightContain(String key) {
+        if (mSync != null) {
+            finishTransaction();
+        }
+        return presence().mightContain(key);
+    }
+
+    private synchronized SharedPreferences shardOf(String key) {
+        return shard(shardIndex(key));
+    }
+
+    /**
+     * @return the number of shards, to go through the entries one shard at a time with
+     * {@link #keysInShard} and {@link #releaseShard}
+     */
+    synchronized int getShardCount() {
+        openIndex();
+        return mShards.length;
+    }
+
+    /**
+     * @return {@code true} if the entry exists and has not expired
+     */
+    public boolean has(String key) {
+        return mightContain(key) && !shardOf(key).getString(VALUE_PREFIX + key, "").equals("")
+                && !isExpired(key, System.currentTimeMillis());
+    }
+
+    /**
+     * @return {@code true} if the entry has an expiry time and it has passed, whether or not the
+     * sweeper has removed the entry yet
+     */
+    public boolean isExpired(String key, long nowMillis) {
+        long expiresAt = getExpiresAt(key);
+        return expiresAt > 0 && expiresAt <= nowMillis;
+    }
+
+    /**
+     * @return the wall clock time at which the entry expires, 0 if it does not
+     */
+    public long getExpiresAt(String key) {
+        if (!mightContain(key) || !shardOf(key).contains(META_PREFIX + key)) {
+            return 0;
+        }
+        return getMeta(key).optLong(META_EXPIRES_AT, 0);
+    }
+
+    /**
+     * Reads the cipher text, IV and key alias of an entry together, so that they belong to the
+     * same version of it even if it is rewritten concurrently, e.g. by a key rotation.
+     *
+     * @return the entry, or {@code null} if there is none
+     */
+    public synchronized Entry get(String key) {
+        if (!mightContain(key)) {
+            return null;
+        }
+        SharedPreferences shard = shardOf(key);
+        String value = shard.getString(VALUE_PREFIX + key, "");
+        if (value.length() == 0) {
+            return null;
+        }
+        JSONObject meta = getMeta(key);
+        String alias = meta.optString(META_ALIAS, "");
+        return new Entry(value, shard.getString(IV_PREFIX + key, ""),
+                alias.length() > 0 ? alias : null, meta.optBoolean(META_COMPRESSED, false),
+                !meta.optBoolean(META_NO_AUTH, false));
+    }
+
+    /**
+     * Initializes the cipher to decrypt the given entry with its stored IV.
+     */
+    public void initDecrypt(Cipher cipher, SecretKey secretKey, Entry entry)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(entry.iv));
+    }
+
+    /**
+     * @return the alias of the key the entry was encrypted with, or {@code null} if it used the
+     * default key
+     */
+    public String getKeyAlias(String key) {
+        String alias = getMeta(key).optString(META_ALIAS, "");
+        return alias.length() > 0 ? alias : null;
+    }
+
+    private JSONObject getMeta(String key) {
+        if (!mightContain(key)) {
+            return new JSONObject();
+        }
+        return parseMeta(shardOf(key).getString(META_PREFIX + key, ""));
+    }
+
+    private static JSONObject parseMeta(String meta) {
+        if (meta.length() > 0) {
+            try {
+                return new JSONObject(meta);
+            } catch (JSONException e) {
+                // Treated like an entry without metadata.
+            }
+        }
+        return new JSONObject();
+    }
+
+    /**
+     * Stores the cipher text and IV of an entry.
+     *
+     * @param compressed {@code true} if the value was compressed with {@link #compress(byte[])}
+     *                  before it was encrypted
+     * @param authRequired {@code true} if the value was saved after asking for a fingerprint, so
+     *                  it must not be read without one
+     * @param alias     alias of the key the entry was encrypted with, {@code null} for the default
+     *                  key
+     * @param expiresAt wall clock time at which the entry expires, 0 to keep it until deleted
+     * @param sync      {@code true} to write to disk before returning, {@code false} to write in
+     *                  the background
+     * @return {@code false} if a synchronous write failed
+     */
+    public synchronized boolean put(String key, byte[] cipherText, byte[] iv, boolean compressed,
+                                    boolean authRequired, String alias, long expiresAt,
+                                    boolean sync) {
+        lock();
+        try {
+            notePresent(key, sync);
+            SharedPreferences shard = shardOf(key);
+            SharedPreferences.Editor editor = shard.edit();
+            putEntry(editor, key, cipherText, iv, compressed, authRequired, alias, expiresAt);
+            noteExpiresAt(key, expiresAt);
+            if (sync) {
+                return commit(shard, editor);
+            }
+            apply(shard, editor);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    private void putEntry(SharedPreferences.Editor editor, String key, byte[] cipherText,
+                          byte[] iv, boolean compressed, boolean authRequired, String alias,
+                          long expiresAt) {
+        editor.putString(VALUE_PREFIX + key, Base64.encodeToString(cipherText, Base64.DEFAULT));
+        editor.putString(IV_PREFIX + key, Base64.encodeToString(iv, Base64.DEFAULT));
+        String meta = metaOf(compressed, authRequired, alias, expiresAt);
+        if (meta != null) {
+            editor.putString(META_PREFIX + key, meta);
+        } else {
+            editor.remove(META_PREFIX + key);
+        }
+    }
+
+    /**
+     * @return the metadata of an entry, {@code null} if it needs none
+     */
+    private static String metaOf(boolean compressed, boolean authRequired, String alias,
+                                 long expiresAt) {
+        JSONObject meta = new JSONObject();
+        try {
+            if (alias != null) {
+                meta.put(META_ALIAS, alias);
+            }
+            if (expiresAt > 0) {
+                meta.put(META_EXPIRES_AT, expiresAt);
+            }
+            if (compressed) {
+                meta.put(META_COMPRESSED, true);
+            }
+            if (!authRequired) {
+                meta.put(META_NO_AUTH, true);
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return meta.length() > 0 ? meta.toString() : null;
+    }
+
+    private static void removeEntry(SharedPreferences.Editor editor, String key) {
+        editor.remove(VALUE_PREFIX + key);
+        editor.remove(IV_PREFIX + key);
+        editor.remove(META_PREFIX + key);
+    }
+
+    /**
+     * Lowers the earliest expiry time recorded for the shard of the entry, if the entry expires
+     * before it.
+     */
+    private void noteExpiresAt(String key, long expiresAt) {
+        if (expiresAt <= 0) {
+            return;
+        }
+        int index = shardIndex(key);
+        SharedPreferences indexPrefs = index();
+        long shardExpiresAt = indexPrefs.getLong(INDEX_EXPIRES_AT_PREFIX + index, 0);
+        if (shardExpiresAt == 0 || expiresAt < shardExpiresAt) {
+            SharedPreferences.Editor indexEditor = indexPrefs.edit();
+            putShardExpiresAt(indexEditor, index, expiresAt);
+            apply(indexPrefs, indexEditor);
+        }
+    }
+
+    private static void putShardExpiresAt(SharedPreferences.Editor indexEditor, int index,
+                                          long expiresAt) {
+        if (expiresAt == Long.MAX_VALUE) {
+            indexEditor.remove(INDEX_EXPIRES_AT_PREFIX + index);
+        } else {
+            indexEditor.putLong(INDEX_EXPIRES_AT_PREFIX + index, expiresAt);
+        }
+    }
+
+    /**
+     * @return the earliest expiry time in the shard, {@link Long#MAX_VALUE} if nothing in it
+     * expires
+     */
+    private long findEarliestExpiresAt(int index) {
+        long earliest = Long.MAX_VALUE;
+        for (Map.Entry<String, ?> entry : shard(index).getAll().entrySet()) {
+            if (entry.getKey().startsWith(META_PREFIX) && entry.getValue() instanceof String) {
+                long expiresAt = parseMeta((String) entry.getValue()).optLong(META_EXPIRES_AT, 0);
+                if (expiresAt > 0) {
+                    earliest = Math.min(earliest, expiresAt);
+                }
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Stores entries re-encrypted with another key, skipping the ones that were rewritten or
+     * deleted since they were read. Their expiry times and compression are kept. Each shard is
+     * written once.
+     *
+     * @param entries the entries as read, by key
+     * @param cipherTexts the new cipher texts, by key
+     * @param ivs the new IVs, by key
+     * @param alias alias of the key they were re-encrypted with, {@code null} for the default key
+     * @return the number of entries stored
+     */
+    public synchronized int replace(Map<String, Entry> entries, Map<String, byte[]> cipherTexts,
+                                    Map<String, byte[]> ivs, String alias) {
+        lock();
+        try {
+            Map<SharedPreferences, SharedPreferences.Editor> editors =
+                    new HashMap<SharedPreferences, SharedPreferences.Editor>();
+            int replaced = 0;
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                String key = entry.getKey();
+                SharedPreferences shard = shardOf(key);
+                if (!entry.getValue().value.equals(shard.getString(VALUE_PREFIX + key, ""))) {
+                    continue;
+                }
+                SharedPreferences.Editor editor = editors.get(shard);
+                if (editor == null) {
+                    editor = shard.edit();
+                    editors.put(shard, editor);
+                }
+                putEntry(editor, key, cipherTexts.get(key), ivs.get(key),
+                        entry.getValue().compressed, entry.getValue().authRequired, alias,
+                        getExpiresAt(key));
+                replaced++;
+            }
+            for (Map.Entry<SharedPreferences, SharedPreferences.Editor> editor
+                    : editors.entrySet()) {
+                commit(editor.getKey(), editor.getValue());
+            }
+            return replaced;
+        } finally {
+            unlock();
+        }
+    }
+
+    public synchronized boolean delete(String key) {
+        lock();
+        try {
+            SharedPreferences shard = shardOf(key);
+            SharedPreferences.Editor editor = shard.edit();
+            removeEntry(editor, key);
+            return commit(shard, editor);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Deletes the given entries with one synchronous write for each shard they are in. Entries in
+     * several shards are deleted as a {@link Transaction}, so all of them are or none.
+     *
+     * @return the number of entries that existed and were deleted, or -1 if a write failed
+     */
+    public synchronized int deleteMany(Collection<String> keys) {
+        lock();
+        try {
+            // So the count leaves out entries a kept journal deletes.
+            finishTransaction();
+            Transaction transaction = new Transaction(null, false);
+            for (String key : keys) {
+                if (shardOf(key).contains(VALUE_PREFIX + key)) {
+                    transaction.delete(key);
+                }
+            }
+            int removed = transaction.getKeys().size();
+            if (removed == 0) {
+                return 0;
+            }
+            return commitTransaction(transaction) ? removed : -1;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Deletes the entries whose keys start with the given prefix, as {@link #deleteMany} does.
+     * The keys are listed with {@link #keys()}, which opens all {@link #SHARD_COUNT} shards.
+     *
+     * @return the number of entries deleted, or -1 if a write failed
+     */
+    public synchronized int deleteByPrefix(String prefix) {
+        lock();
+        try {
+            List<String> keys = new ArrayList<String>();
+            for (String key : keys()) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+            return deleteMany(keys);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Opens every shard, so it is only meant for rare operations.
+     *
+     * @return the keys of all stored entries
+     */
+    public synchronized List<String> keys() {
+        List<String> keys = new ArrayList<String>();
+        for (int index = 0; index < getShardCount(); index++) {
+            keys.addAll(keysInShard(index));
+        }
+        return keys;
+    }
+
+    /**
+     * Opens the shard with the given index, if it is not open yet.
+     *
+     * @return the keys of the entries stored in that shard
+     */
+    synchronized List<String> keysInShard(int index) {
+        openIndex();
+        List<String> keys = new ArrayList<String>();
+        for (String name : shard(index).getAll().keySet()) {
+            if (name.startsWith(VALUE_PREFIX)) {
+                keys.add(name.substring(VALUE_PREFIX.length()));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Lets go of the shard with the given index, which is opened again on its next use, so that
+     * going through all shards does not keep them all loaded. Android keeps every preference file
+     * a context opened, so there it only drops the store's own reference.
+     */
+    synchronized void releaseShard(int index) {
+        openIndex();
+        mShards[index] = null;
+    }
+
+    /**
+     * Opens every shard, so it is only meant for rare operations.
+     *
+     * @param alias the alias, or {@code null} for the default key
+     * @return the keys of the entries encrypted with the key with the given alias
+     */
+    public synchronized List<String> keysWithKeyAlias(String alias) {
+        List<String> keys = new ArrayList<String>();
+        for (String key : keys()) {
+            String entryAlias = getKeyAlias(key);
+            if (alias == null ? entryAlias == null : alias.equals(entryAlias)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Deletes the entries encrypted with the key with the given alias, once that key is gone.
+     *
+     * @param alias the alias, or {@code null} for the default key
+     */
+    public synchronized boolean deleteWithKeyAlias(String alias) {
+        lock();
+        try {
+            Map<SharedPreferences, SharedPreferences.Editor> editors =
+                    new HashMap<SharedPreferences, SharedPreferences.Editor>();
+            for (String key : keysWithKeyAlias(alias)) {
+                SharedPreferences shard = shardOf(key);
+                SharedPreferences.Editor editor = editors.get(shard);
+                if (editor == null) {
+                    editor = shard.edit();
+                    editors.put(shard, editor);
+                }
+                removeEntry(editor, key);
+            }
+            boolean committed = true;
+            for (Map.Entry<SharedPreferences, SharedPreferences.Editor> editor
+                    : editors.entrySet()) {
+                committed &= commit(editor.getKey(), editor.getValue());
+            }
+            return committed;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Removes expired entries, at most {@code limit} of them, with a background write for each
+     * shard they were in. Only the shards whose earliest expiry time has passed are opened.
+     *
+     * @return the earliest expiry time of the entries left, which is not after {@code nowMillis}
+     * if the limit kept expired entries from being removed, or {@link Long#MAX_VALUE} if no entry
+     * left expires
+     */
+    public synchronized long removeExpired(long nowMillis, int limit) {
+        lock();
+        try {
+            int removed = 0;
+            long nextExpiresAt = Long.MAX_VALUE;
+            SharedPreferences.Editor indexEditor = null;
+            for (int index = 0; index < getShardCount(); index++) {
+                long shardExpiresAt = index().getLong(INDEX_EXPIRES_AT_PREFIX + index, 0);
+                if (shardExpiresAt == 0) {
+                    continue;
+                }
+                if (shardExpiresAt > nowMillis || removed >= limit) {
+                    nextExpiresAt = Math.min(nextExpiresAt, shardExpiresAt);
+                    continue;
+                }
+                SharedPreferences shard = shard(index);
+                SharedPreferences.Editor editor = shard.edit();
+                long shardNextExpiresAt = Long.MAX_VALUE;
+                for (Map.Entry<String, ?> entry : shard.getAll().entrySet()) {
+                    if (!entry.getKey().startsWith(META_PREFIX)
+                            || !(entry.getValue() instanceof String)) {
+                        continue;
+                    }
+                    long expiresAt = parseMeta((String) entry.getValue())
+                            .optLong(META_EXPIRES_AT, 0);
+                    if (expiresAt <= 0) {
+                        continue;
+                    }
+                    if (expiresAt <= nowMillis && removed < limit) {
+                        removeEntry(editor, entry.getKey().substring(META_PREFIX.length()));
+                        removed++;
+                    } else {
+                        shardNextExpiresAt = Math.min(shardNextExpiresAt, expiresAt);
+                    }
+                }
+                apply(shard, editor);
+                if (indexEditor == null) {
+                    indexEditor = index().edit();
+                }
+                putShardExpiresAt(indexEditor, index, shardNextExpiresAt);
+                nextExpiresAt = Math.min(nextExpiresAt, shardNextExpiresAt);
+            }
+            if (indexEditor != null) {
+                apply(mIndex, indexEditor);
+            }
+            return nextExpiresAt;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Writes the saves and deletes of a transaction, encrypted with
+     * {@link Transaction#encrypt(Cipher)}, so that readers see all of them or none. A transaction
+     * within one shard is a single write to it; one spanning several shards is journaled in the
+     * index first, and each shard it touches is written once.
+     *
+     * @return {@code false} if a write failed; the journal of a transaction spanning several shards
+     * is then kept, and written again when the store is opened or the next transaction commits
+     */
+    public synchronized boolean commitTransaction(Transaction transaction) {
+        lock();
+        try {
+            // A journal kept by a failed write goes first, rather than being replaced by this one.
+            finishTransaction();
+            JSONArray ops = transaction.toJournal();
+            Set<Integer> shards = new HashSet<Integer>();
+            List<String> savedKeys = new ArrayList<String>();
+            Map<Integer, Long> expiresAt = new HashMap<Integer, Long>();
+            for (int i = 0; i < ops.length(); i++) {
+                JSONObject op = ops.optJSONObject(i);
+                String key = op.optString(OP_KEY);
+                int index = shardIndex(key);
+                shards.add(index);
+                if (!op.has(OP_VALUE)) {
+                    continue;
+                }
+                savedKeys.add(key);
+                long opExpiresAt = parseMeta(op.optString(OP_META, "")).optLong(META_EXPIRES_AT, 0);
+                Long shardExpiresAt = expiresAt.get(index);
+                if (opExpiresAt > 0 && (shardExpiresAt == null || opExpiresAt < shardExpiresAt)) {
+                    expiresAt.put(index, opExpiresAt);
+                }
+            }
+            boolean journaled = shards.size() > 1;
+            SharedPreferences indexPrefs = index();
+            SharedPreferences.Editor indexEditor = indexPrefs.edit();
+            boolean indexChanged = journaled;
+            if (journaled) {
+                indexEditor.putString(INDEX_JOURNAL, ops.toString());
+            }
+            PresenceFilter presence = presenceWith(savedKeys);
+            if (presence != null) {
+                putPresence(indexEditor, presence);
+                indexChanged = true;
+            }
+            for (Map.Entry<Integer, Long> entry : expiresAt.entrySet()) {
+                long shardExpiresAt =
+                        indexPrefs.getLong(INDEX_EXPIRES_AT_PREFIX + entry.getKey(), 0);
+                if (shardExpiresAt == 0 || entry.getValue() < shardExpiresAt) {
+                    putShardExpiresAt(indexEditor, entry.getKey(), entry.getValue());
+                    indexChanged = true;
+                }
+            }
+            if (indexChanged && !commit(indexPrefs, indexEditor)) {
+                return false;
+            }
+            if (presence != null) {
+                mPresence = presence;
+            }
+            if (!writeOps(ops)) {
+                return false;
+            }
+            return !journaled || commit(mIndex, mIndex.edit().remove(INDEX_JOURNAL));
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Writes the journal left in the index by a transaction that was cut short, or waits for the
+     * process writing it to finish. The journal is only removed once every shard was written.
+     */
+    private synchronized void finishTransaction() {
+        if (index().getString(INDEX_JOURNAL, "").length() == 0) {
+            return;
+        }
+        lock();
+        try {
+            String journal = index().getString(INDEX_JOURNAL, "");
+            if (journal.length() == 0) {
+                return;
+            }
+            try {
+                JSONArray ops = new JSONArray(journal);
+                List<String> savedKeys = new ArrayList<String>();
+                for (int i = 0; i < ops.length(); i++) {
+                    JSONObject op = ops.optJSONObject(i);
+                    if (op != null && op.has(OP_VALUE)) {
+                        savedKeys.add(op.optString(OP_KEY));
+                    }
+                }
+                PresenceFilter presence = presenceWith(savedKeys);
+                if (presence != null) {
+                    savePresence(presence, true);
+                    mPresence = presence;
+                }
+                if (!writeOps(ops)) {
+                    return;
+                }
+            } catch (JSONException e) {
+                // Not written completely, so none of it reached the shards.
+            }
+            commit(mIndex, mIndex.edit().remove(INDEX_JOURNAL));
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Writes the operations of a transaction to their shards, each shard once.
+     */
+    private boolean writeOps(JSONArray ops) {
+        Map<SharedPreferences, SharedPreferences.Editor> editors =
+                new LinkedHashMap<SharedPreferences, SharedPreferences.Editor>();
+        for (int i = 0; i < ops.length(); i++) {
+            JSONObject op = ops.optJSONObject(i);
+            if (op == null) {
+                continue;
+            }
+            String key = op.optString(OP_KEY);
+            SharedPreferences shard = shardOf(key);
+            SharedPreferences.Editor editor = editors.get(shard);
+            if (editor == null) {
+                editor = shard.edit();
+                editors.put(shard, editor);
+            }
+            if (!op.has(OP_VALUE)) {
+                removeEntry(editor, key);
+                continue;
+            }
+            editor.putString(VALUE_PREFIX + key, op.optString(OP_VALUE));
+            editor.putString(IV_PREFIX + key, op.optString(OP_IV));
+            if (op.has(OP_META)) {
+                editor.putString(META_PREFIX + key, op.optString(OP_META));
+            } else {
+                editor.remove(META_PREFIX + key);
+            }
+        }
+        boolean committed = true;
+        for (Map.Entry<SharedPreferences, SharedPreferences.Editor> editor : editors.entrySet()) {
+            committed &= commit(editor.getKey(), editor.getValue());
+        }
+        return committed;
+    }
+
+    /**
+     * Moves an entry from the shared preferences used by older versions of the plugin.
+     *
+     * @return {@code true} if the entry existed and was moved
+     */
+    public synchronized boolean moveFrom(SharedPreferences oldSharedPref, String key) {
+        lock();
+        try {
+            String enc = oldSharedPref.getString(LEGACY_VALUE_PREFIX + key, "");
+            if (enc.equals("")) {
+                return false;
+            }
+            notePresent(key, true);
+            SharedPreferences shard = shardOf(key);
+            SharedPreferences.Editor newEditor = shard.edit();
+            newEditor.putString(VALUE_PREFIX + key, enc);
+            newEditor.putString(IV_PREFIX + key,
+                    oldSharedPref.getString(LEGACY_IV_PREFIX + key, ""));
+            String meta = oldSharedPref.getString(LEGACY_META_PREFIX + key, "");
+            if (meta.length() > 0) {
+                newEditor.putString(META_PREFIX + key, meta);
+                noteExpiresAt(key, parseMeta(meta).optLong(META_EXPIRES_AT, 0));
+            } else {
+                newEditor.remove(META_PREFIX + key);
+            }
+            commit(shard, newEditor);
+            oldSharedPref.edit().remove(LEGACY_VALUE_PREFIX + key)
+                    .remove(LEGACY_IV_PREFIX + key).remove(LEGACY_META_PREFIX + key).commit();
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Deletes all entries. Opens every shard.
+     */
+    public synchronized boolean clear() {
+        lock();
+        try {
+            boolean committed = true;
+            for (int index = 0; index < getShardCount(); index++) {
+                SharedPreferences shard = shard(index);
+                committed &= commit(shard, shard.edit().clear());
+            }
+            SharedPreferences.Editor indexEditor = index().edit();
+            for (int index = 0; index < getShardCount(); index++) {
+                indexEditor.remove(INDEX_EXPIRES_AT_PREFIX + index);
+            }
+            PresenceFilter presence = new PresenceFilter(PRESENCE_MIN_CAPACITY);
+            putPresence(indexEditor, presence);
+            committed = commit(mIndex, indexEditor) && committed;
+            mPresence = presence;
+            return committed;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Deflates a value before it is encrypted, as compressing it afterwards gains nothing.
+     *
+     * @return the compressed value, or {@code null} if it is not smaller than the value
+     */
+    public static byte[] compress(byte[] value) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() >= value.length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates a value compressed with {@link #compress(byte[])}.
+     */
+    public static byte[] decompress(byte[] value) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated value");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Saves and deletes staged to be written together by {@link #commitTransaction(Transaction)}.
+     * The values are encrypted with one cipher session, so that a key which needs a fingerprint
+     * for every use asks for it once.
+     */
+    public static class Transaction {
+
+        private final String mAlias;
+        private final boolean mAuthRequired;
+        /**
+         * The last operation staged for each key, a {@link Save} or {@code null} to delete
+         */
+        private final Map<String, Save> mOps = new LinkedHashMap<String, Save>();
+
+        /**
+         * @param alias alias of the key the values are encrypted with, {@code null} for the
+         *              default key
+         * @param authRequired {@code true} if the values are saved after asking for a fingerprint
+         */
+        public Transaction(String alias, boolean authRequired) {
+            mAlias = alias;
+            mAuthRequired = authRequired;
+        }
+
+        /**
+         * @param value      the value, compressed with {@link #compress(byte[])} if
+         *                   {@code compressed}; overwritten once encrypted
+         * @param expiresAt  wall clock time at which the entry expires, 0 to keep it until
+         *                   deleted
+         */
+        public Transaction put(String key, byte[] value, boolean compressed, long expiresAt) {
+            mOps.remove(key);
+            mOps.put(key, new Save(value, compressed, expiresAt));
+            return this;
+        }
+
+        public Transaction delete(String key) {
+            mOps.remove(key);
+            mOps.put(key, null);
+            return this;
+        }
+
+        public Set<String> getKeys() {
+            return mOps.keySet();
+        }
+
+        /**
+         * @return {@code true} if values have to be encrypted before the transaction is committed
+         */
+        public boolean hasSaves() {
+            for (Save save : mOps.values()) {
+                if (save != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the earliest expiry time of the saved entries, 0 if none expires
+         */
+        public long getEarliestExpiresAt() {
+            long earliest = 0;
+            for (Save save : mOps.values()) {
+                if (save != null && save.expiresAt > 0
+                        && (earliest == 0 || save.expiresAt < earliest)) {
+                    earliest = save.expiresAt;
+                }
+            }
+            return earliest;
+        }
+
+        /**
+         * Encrypts each staged value on its own, initializing the cipher with the key again for
+         * every value, so that each gets a fresh random IV. For keys usable without a prompt.
+         *
+         * @param cipher a cipher for CBC mode with PKCS7 padding
+         */
+        public void encrypt(Cipher cipher, SecretKey key)
+                throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+            for (Save save : mOps.values()) {
+                if (save != null) {
+                    cipher.init(Cipher.ENCRYPT_MODE, key);
+                    save.cipherText = cipher.doFinal(save.value);
+                    save.iv = cipher.getIV();
+                    Arrays.fill(save.value, (byte) 0);
+                }
+            }
+        }
+
+        /**
+         * Encrypts the staged values with a cipher initialized for encryption in CBC mode with
+         * PKCS7 padding, as one message, for a cipher that a single prompt authorized for one
+         * operation. The first value takes the IV the cipher was initialized with. Before each
+         * other value a random block is encrypted, and its cipher text, the encryption of the
+         * random block and the previous cipher text block, is that value's IV, as NIST SP 800-38A
+         * appendix C suggests; it is not stored with the value. Every value but the last is padded
+         * by hand, so each one ends on a block boundary. Each value is then stored and decrypted
+         * like one encrypted on its own.
+         */
+        public void encrypt(Cipher cipher) throws IllegalBlockSizeException, BadPaddingException {
+            List<Save> saves = new ArrayList<Save>();
+            for (Save save : mOps.values()) {
+                if (save != null) {
+                    saves.add(save);
+                }
+            }
+            if (saves.isEmpty()) {
+                return;
+            }
+            int blockSize = cipher.getBlockSize();
+            byte[] iv = cipher.getIV();
+            byte[] ivBlock = new byte[blockSize];
+            SecureRandom random = new SecureRandom();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int[] lengths = new int[saves.size()];
+            for (int i = 0; i < saves.size(); i++) {
+                if (i > 0) {
+                    random.nextBytes(ivBlock);
+                    write(out, cipher.update(ivBlock));
+                }
+                byte[] value = saves.get(i).value;
+                if (i < saves.size() - 1) {
+                    int padding = blockSize - value.length % blockSize;
+                    byte[] padded = Arrays.copyOf(value, value.length + padding);
+                    Arrays.fill(padded, value.length, padded.length, (byte) padding);
+                    lengths[i] = padded.length;
+                    write(out, cipher.update(padded));
+                    Arrays.fill(padded, (byte) 0);
+                } else {
+                    write(out, cipher.doFinal(value));
+                }
+                Arrays.fill(value, (byte) 0);
+            }
+            byte[] cipherText = out.toByteArray();
+            int offset = 0;
+            for (int i = 0; i < saves.size(); i++) {
+                if (i > 0) {
+                    iv = Arrays.copyOfRange(cipherText, offset, offset + blockSize);
+                    offset += blockSize;
+                }
+                int length = i < saves.size() - 1 ? lengths[i] : cipherText.length - offset;
+                Save save = saves.get(i);
+                save.iv = iv;
+                save.cipherText = Arrays.copyOfRange(cipherText, offset, offset + length);
+                offset += length;
+            }
+        }
+
+        private static void write(ByteArrayOutputStream out, byte[] output) {
+            if (output != null) {
+                out.write(output, 0, output.length);
+            }
+        }
+
+        /**
+         * @return the operations as written to the shards, and to the journal
+         */
+        JSONArray toJournal() {
+            JSONArray ops = new JSONArray();
+            try {
+                for (Map.Entry<String, Save> entry : mOps.entrySet()) {
+                    JSONObject op = new JSONObject();
+                    op.put(OP_KEY, entry.getKey());
+                    Save save = entry.getValue();
+                    if (save != null) {
+                        if (save.cipherText == null) {
+                            throw new IllegalStateException("Not encrypted");
+                        }
+                        op.put(OP_VALUE, Base64.encodeToString(save.cipherText, Base64.DEFAULT));
+                        op.put(OP_IV, Base64.encodeToString(save.iv, Base64.DEFAULT));
+                        String meta = metaOf(save.compressed, mAuthRequired, mAlias,
+                                save.expiresAt);
+                        if (meta != null) {
+                            op.put(OP_META, meta);
+                        }
+                    }
+                    ops.put(op);
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            return ops;
+        }
+
+        private static class Save {
+            final byte[] value;
+            final boolean compressed;
+            final long expiresAt;
+            byte[] cipherText;
+            byte[] iv;
+
+            Save(byte[] value, boolean compressed, long expiresAt) {
+                this.value = value;
+                this.compressed = compressed;
+                this.expiresAt = expiresAt;
+            }
+        }
+    }
+
+    /**
+     * One version of an entry, as read by {@link #get(String)}.
+     */
+    public static class Entry {
+
+        /**
+         * Alias of the key the entry was encrypted with, {@code null} for the default key
+         */
+        public final String alias;
+        public final byte[] cipherText;
+        public final byte[] iv;
+        /**
+         * {@code true} if the decrypted value has to be passed to {@link #decompress(byte[])}
+         */
+        public final boolean compressed;
+        /**
+         * {@code true} unless the value was saved without asking for a fingerprint, in which case
+         * it may be read without a prompt
+         */
+        public final boolean authRequired;
+        /**
+         * The stored value, to find out whether the entry changed since
+         */
+        final String value;
+
+        Entry(String value, String iv, String alias, boolean compressed, boolean authRequired) {
+            this.value = value;
+            this.alias = alias;
+            this.compressed = compressed;
+            this.authRequired = authRequired;
+            cipherText = Base64.decode(value, Base64.DEFAULT);
+            this.iv = Base64.decode(iv, Base64.DEFAULT);
+        }
+    }
+}
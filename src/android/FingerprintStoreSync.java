@@ -0,0 +1,84 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Lets the processes of an app share the files of a {@link FingerprintStore}.
+ *
+ * Each process keeps its own copy of the preference files in memory. A small file, mapped into
+ * every process, holds a version number per preference file, which a process bumps after writing
+ * that file. Before reading a file, the store compares its version with the one it loaded, so
+ * noticing a change takes a memory read, and only the changed file is loaded again. Writes hold a
+ * lock on the same file, so they start from the latest version of the files they change and do
+ * not overwrite each other's changes.
+ */
+class FingerprintStoreSync {
+
+    /**
+     * Number of version slots, more than the index plus {@link FingerprintStore#SHARD_COUNT}
+     */
+    static final int SLOTS = 64;
+
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mVersions;
+    private FileLock mLock;
+    private int mLockDepth;
+
+    /**
+     * @param file the file shared by the processes, created if it does not exist
+     */
+    FingerprintStoreSync(File file) throws IOException {
+        mChannel = new RandomAccessFile(file, "rw").getChannel();
+        mVersions = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, SLOTS * 4);
+    }
+
+    /**
+     * @return the version of the file in the given slot, which only means something compared to
+     * an earlier one
+     */
+    int getVersion(int slot) {
+        return mVersions.getInt((slot % SLOTS) * 4);
+    }
+
+    /**
+     * Tells the other processes the file in the given slot changed. Called with the lock held,
+     * after the file was written.
+     *
+     * @return the new version of the file
+     */
+    int noteChanged(int slot) {
+        int offset = (slot % SLOTS) * 4;
+        int version = mVersions.getInt(offset) + 1;
+        mVersions.putInt(offset, version);
+        return version;
+    }
+
+    /**
+     * Waits for the other processes to finish writing, and keeps them from writing until
+     * {@link #unlock()} is called as many times. The calls of one process are serialized by the
+     * store.
+     */
+    synchronized void lock() throws IOException {
+        if (mLockDepth == 0) {
+            mLock = mChannel.lock();
+        }
+        mLockDepth++;
+    }
+
+    synchronized void unlock() throws IOException {
+        if (mLockDepth == 0) {
+            return;
+        }
+        mLockDepth--;
+        if (mLockDepth == 0) {
+            FileLock lock = mLock;
+            mLock = null;
+            lock.release();
+        }
+    }
+}
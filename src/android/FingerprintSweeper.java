@@ -0,0 +1,84 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Removes expired entries from the store in the background, so that the preferences file loaded
+ * on every start does not keep growing with them. Entries are treated as missing as soon as they
+ * expire, whether or not they have been removed yet.
+ *
+ * A run removes at most {@link #BATCH_SIZE} entries in one write. If more are due, the next run
+ * follows after {@link #BATCH_DELAY_MILLIS}; otherwise it is scheduled for the next expiry. The
+ * handler's clock stops while the device sleeps, so a run can come late, but never early.
+ */
+class FingerprintSweeper {
+
+    private static final String TAG = "FingerprintSweeper";
+    static final int BATCH_SIZE = 64;
+    static final long BATCH_DELAY_MILLIS = 1000;
+    /**
+     * Delay of the first run after the plugin starts, to stay out of the way of the app's startup
+     */
+    static final long START_DELAY_MILLIS = 5000;
+
+    private final FingerprintStore mStore;
+    private final Handler mHandler;
+    private final Executor mExecutor;
+    /**
+     * Wall clock time the next run is scheduled for, {@link Long#MAX_VALUE} if none is
+     */
+    private long mScheduledAt = Long.MAX_VALUE;
+
+    private final Runnable mPost = new Runnable() {
+        public void run() {
+            mExecutor.execute(mSweep);
+        }
+    };
+
+    private final Runnable mSweep = new Runnable() {
+        public void run() {
+            synchronized (FingerprintSweeper.this) {
+                mScheduledAt = Long.MAX_VALUE;
+            }
+            long now = System.currentTimeMillis();
+            long nextExpiresAt = mStore.removeExpired(now, BATCH_SIZE);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Swept expired entries, next expiry at " + nextExpiresAt);
+            }
+            schedule(Math.max(nextExpiresAt, System.currentTimeMillis() + BATCH_DELAY_MILLIS));
+        }
+    };
+
+    /**
+     * @param handler  handler the runs are timed on
+     * @param executor executor the runs are done on, off the UI thread
+     */
+    FingerprintSweeper(FingerprintStore store, Handler handler, Executor executor) {
+        mStore = store;
+        mHandler = handler;
+        mExecutor = executor;
+    }
+
+    /**
+     * Schedules the first run, which finds out when the saved entries expire.
+     */
+    void start() {
+        schedule(System.currentTimeMillis() + START_DELAY_MILLIS);
+    }
+
+    /**
+     * Makes sure a run happens at the given wall clock time or earlier, e.g. after saving an
+     * entry that expires then.
+     */
+    synchronized void schedule(long atMillis) {
+        if (atMillis == Long.MAX_VALUE || atMillis >= mScheduledAt) {
+            return;
+        }
+        mScheduledAt = atMillis;
+        mHandler.removeCallbacks(mPost);
+        mHandler.postDelayed(mPost, Math.max(0, atMillis - System.currentTimeMillis()));
+    }
+}
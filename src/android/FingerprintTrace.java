@@ -0,0 +1,173 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import org.apache.cordova.LOG;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lightweight tracing of the stages a request goes through, recorded into a fixed-size ring
+ * buffer that can be exported with the getTrace action.
+ *
+ * Tracing is off by default. While it is off, {@link #begin()} and {@link #end} only read a
+ * volatile flag. While it is on, recording takes no locks and allocates nothing: each writer
+ * claims a slot from an atomic cursor and publishes it through a per-slot sequence number, so
+ * a concurrent export skips slots that are being overwritten.
+ */
+public class FingerprintTrace {
+
+    private static final String TAG = "FingerprintTrace";
+
+    /**
+     * Stages recorded by the plugin
+     */
+    public enum Span {
+        BRIDGE_ENTRY("bridge"),
+        KEYSTORE_LOAD("keystore"),
+        CIPHER_INIT("cipher"),
+        DIALOG_SHOWN("dialog"),
+        SENSOR_ARMED("sensor"),
+        AUTH_RESULT("auth"),
+        STORAGE_WRITE("storage");
+
+        private final String label;
+
+        Span(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Number of entries kept, must be a power of two
+     */
+    static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+    private static final Span[] SPANS = Span.values();
+
+    private static volatile boolean sEnabled;
+    private static final long sEpochNanos = System.nanoTime();
+    private static final AtomicLong sCursor = new AtomicLong();
+    private static final AtomicLongArray sSequence = new AtomicLongArray(CAPACITY);
+    private static final int[] sSpan = new int[CAPACITY];
+    private static final long[] sStartNanos = new long[CAPACITY];
+    private static final long[] sDurationNanos = new long[CAPACITY];
+    private static final int[] sCode = new int[CAPACITY];
+    private static final String[] sDetail = new String[CAPACITY];
+
+    private FingerprintTrace() {
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #end}, or {@code 0} while tracing is off
+     */
+    public static long begin() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a stage that started at {@code startNanos}, as returned by {@link #begin()} or
+     * {@link System#nanoTime()}.
+     */
+    public static void end(Span span, long startNanos) {
+        if (sEnabled && startNanos != 0) {
+            record(span, startNanos, System.nanoTime() - startNanos, 0, null);
+        }
+    }
+
+    /**
+     * Records a stage with a result code, e.g. the error code of an authentication.
+     */
+    public static void end(Span span, long startNanos, int code) {
+        if (sEnabled && startNanos != 0) {
+            record(span, startNanos, System.nanoTime() - startNanos, code, null);
+        }
+    }
+
+    /**
+     * Records a point in time, such as a request entering the plugin.
+     *
+     * @param detail a string that already exists, such as the action name; it is kept by
+     *               reference and never built here
+     */
+    public static void mark(Span span, String detail) {
+        if (sEnabled) {
+            record(span, System.nanoTime(), 0, 0, detail);
+        }
+    }
+
+    private static void record(Span span, long startNanos, long durationNanos, int code,
+                               String detail) {
+        long index = sCursor.getAndIncrement();
+        int slot = (int) (index & MASK);
+        // Odd while the slot is being written, even once it holds entry number index.
+        sSequence.set(slot, 2 * index + 1);
+        sSpan[slot] = span.ordinal();
+        sStartNanos[slot] = startNanos;
+        sDurationNanos[slot] = durationNanos;
+        sCode[slot] = code;
+        sDetail[slot] = detail;
+        sSequence.set(slot, 2 * index + 2);
+    }
+
+    public static void clear() {
+        long end = sCursor.get();
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            sSequence.set(slot, 0);
+            sDetail[slot] = null;
+        }
+        sCursor.compareAndSet(end, 0);
+    }
+
+    /**
+     * Exports the buffered entries, oldest first. Each entry is a compact array of
+     * {@code [stage, startMicros, durationMicros, code, detail]}, where the start is relative to
+     * the time the plugin was loaded.
+     */
+    public static JSONObject toJSON() {
+        JSONObject resultJson = new JSONObject();
+        JSONArray entries = new JSONArray();
+        long end = sCursor.get();
+        long start = Math.max(0, end - CAPACITY);
+        try {
+            for (long index = start; index < end; index++) {
+                int slot = (int) (index & MASK);
+                long sequence = sSequence.get(slot);
+                if (sequence != 2 * index + 2) {
+                    continue;
+                }
+                int span = sSpan[slot];
+                long startNanos = sStartNanos[slot];
+                long durationNanos = sDurationNanos[slot];
+                int code = sCode[slot];
+                String detail = sDetail[slot];
+                if (sSequence.get(slot) != sequence) {
+                    continue;
+                }
+                JSONArray entry = new JSONArray();
+                entry.put(SPANS[span].label);
+                entry.put((startNanos - sEpochNanos) / 1000);
+                entry.put(durationNanos / 1000);
+                entry.put(code);
+                entry.put(detail == null ? "" : detail);
+                entries.put(entry);
+            }
+            resultJson.put("enabled", sEnabled);
+            resultJson.put("dropped", start);
+            resultJson.put("entries", entries);
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        return resultJson;
+    }
+}
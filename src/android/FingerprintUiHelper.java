@@ -35,11 +35,15 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
 
 
     private final Context mContext;
-    private final FingerprintManager mFingerprintManager;
+    private final FingerprintSensor mSensor;
     private final ImageView mIcon;
     private final TextView mErrorTextView;
     private final Callback mCallback;
     private CancellationSignal mCancellationSignal;
+    /**
+     * Start of the wait for the user, taken when the sensor was armed
+     */
+    private long mArmedAt;
 
     boolean mSelfCancelled;
 
@@ -48,16 +52,16 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
      * holds its fields and takes other arguments in the {@link #build} method.
      */
     public static class FingerprintUiHelperBuilder {
-        private final FingerprintManager mFingerPrintManager;
+        private final FingerprintSensor mSensor;
         private final Context mContext;
 
-        public FingerprintUiHelperBuilder(Context context, FingerprintManager fingerprintManager) {
-            mFingerPrintManager = fingerprintManager;
+        public FingerprintUiHelperBuilder(Context context, FingerprintSensor sensor) {
+            mSensor = sensor;
             mContext = context;
         }
 
         public FingerprintUiHelper build(ImageView icon, TextView errorTextView, Callback callback) {
-            return new FingerprintUiHelper(mContext, mFingerPrintManager, icon, errorTextView,
+            return new FingerprintUiHelper(mContext, mSensor, icon, errorTextView,
                     callback);
         }
     }
@@ -66,9 +70,9 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
      * Constructor for {@link FingerprintUiHelper}. This method is expected to be called from
      * only the {@link FingerprintUiHelperBuilder} class.
      */
-    private FingerprintUiHelper(Context context, FingerprintManager fingerprintManager,
+    private FingerprintUiHelper(Context context, FingerprintSensor sensor,
             ImageView icon, TextView errorTextView, Callback callback) {
-        mFingerprintManager = fingerprintManager;
+        mSensor = sensor;
         mIcon = icon;
         mErrorTextView = errorTextView;
         mCallback = callback;
@@ -76,8 +80,8 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
     }
 
     public boolean isFingerprintAuthAvailable() {
-        return mFingerprintManager.isHardwareDetected()
-                && mFingerprintManager.hasEnrolledFingerprints();
+        return mSensor.isHardwareDetected()
+                && mSensor.hasEnrolledFingerprints();
     }
 
     public void startListening(FingerprintManager.CryptoObject cryptoObject) {
@@ -86,8 +90,11 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
         }
         mCancellationSignal = new CancellationSignal();
         mSelfCancelled = false;
-        mFingerprintManager
-                .authenticate(cryptoObject, mCancellationSignal, 0 /* flags */, this, null);
+        long traceStart = FingerprintTrace.begin();
+        mSensor.authenticate(cryptoObject, mCancellationSignal, this);
+        FingerprintTrace.end(FingerprintTrace.Span.SENSOR_ARMED, traceStart);
+        mArmedAt = System.nanoTime();
+        FingerprintEvents.send(FingerprintEvents.Type.ARMED);
 
         int ic_fp_40px_id = mContext.getResources()
                 .getIdentifier("ic_fp_40px", "drawable", FingerprintAuth.packageName);
@@ -105,6 +112,9 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
     @Override
     public void onAuthenticationError(final int errMsgId, final CharSequence errString) {
         if (!mSelfCancelled) {
+            FingerprintTrace.end(FingerprintTrace.Span.AUTH_RESULT, mArmedAt, errMsgId);
+            FingerprintMetrics.recordStage(FingerprintMetrics.Stage.USER_WAIT, mArmedAt);
+            FingerprintEvents.send(FingerprintEvents.Type.ERROR, errMsgId, errString);
             showError(errString);
             mIcon.postDelayed(new Runnable() {
                 @Override
@@ -117,19 +127,24 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
 
     @Override
     public void onAuthenticationHelp(int helpMsgId, CharSequence helpString) {
+        FingerprintEvents.send(FingerprintEvents.Type.HELP, helpMsgId, helpString);
         showError(helpString);
     }
 
     @Override
     public void onAuthenticationFailed() {
+        FingerprintEvents.send(FingerprintEvents.Type.FAILED);
         int fingerprint_not_recognized_id = mContext.getResources()
                 .getIdentifier("fingerprint_not_recognized", "string", FingerprintAuth.packageName);
-        showError(mIcon.getResources().getString(
+        showError(mContext.getResources().getString(
                 fingerprint_not_recognized_id));
     }
 
     @Override
     public void onAuthenticationSucceeded(FingerprintManager.AuthenticationResult result) {
+        FingerprintTrace.end(FingerprintTrace.Span.AUTH_RESULT, mArmedAt);
+        FingerprintMetrics.recordStage(FingerprintMetrics.Stage.USER_WAIT, mArmedAt);
+        FingerprintEvents.send(FingerprintEvents.Type.SUCCESS);
         mErrorTextView.removeCallbacks(mResetErrorTextRunnable);
         int ic_fingerprint_success_id = mContext.getResources()
                 .getIdentifier("ic_fingerprint_success", "drawable", FingerprintAuth.packageName);
@@ -141,7 +156,7 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
         int fingerprint_success_id = mContext.getResources()
                 .getIdentifier("fingerprint_success", "string", FingerprintAuth.packageName);
         mErrorTextView.setText(
-                mErrorTextView.getResources().getString(fingerprint_success_id));
+                mContext.getResources().getString(fingerprint_success_id));
         mIcon.postDelayed(new Runnable() {
             @Override
             public void run() {
@@ -173,7 +188,7 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
             int fingerprint_hint_id = mContext.getResources()
                     .getIdentifier("fingerprint_hint", "string", FingerprintAuth.packageName);
             mErrorTextView.setText(
-                    mErrorTextView.getResources().getString(fingerprint_hint_id));
+                    mContext.getResources().getString(fingerprint_hint_id));
             int ic_fp_40px_id = mContext.getResources()
                     .getIdentifier("ic_fp_40px", "drawable", FingerprintAuth.packageName);
             mIcon.setImageResource(ic_fp_40px_id);
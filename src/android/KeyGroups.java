@@ -0,0 +1,154 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key groups let entries be encrypted with different keys in different security tiers, e.g.
+ * root secrets in StrongBox and frequently read tokens in the TEE.
+ *
+ * Each group has its own key, whose alias is the plugin's alias followed by the group name; the
+ * entries saved without a group use the plugin's alias itself, as they always did. The tier
+ * asked for a group applies when its key is created, and the tier the key got is recorded.
+ *
+ * Once a group's key is rotated, new entries are encrypted with the next version of it, whose
+ * alias is the group's alias followed by {@code #<version>}. Versions are kept per group alias,
+ * so the keys of the real and the simulated sensor are rotated apart.
+ */
+public class KeyGroups {
+
+    private static final String SHARED_PREFS_NAME = "FingerSPrefKeyGroups";
+    private static final String REQUESTED_PREFIX = "tier_";
+    private static final String CREATED_PREFIX = "created_";
+    private static final String VERSION_PREFIX = "version_";
+    private static final String ROTATING_PREFIX = "rotating_";
+    private static final String ROTATION_FAILED_PREFIX = "rotationFailed_";
+    private static final String VERSION_SEPARATOR = "#";
+
+    private final SharedPreferences mSharedPref;
+
+    public KeyGroups(Context context) {
+        mSharedPref = context.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param group the group, or an empty string for the entries saved without one
+     */
+    static String aliasOf(String baseAlias, String group) {
+        return group.length() == 0 ? baseAlias : baseAlias + "_" + group;
+    }
+
+    /**
+     * @return the tier asked for the group, the TEE unless set
+     */
+    public SecurityTier getTier(String group) {
+        SecurityTier tier = SecurityTier.fromLabel(
+                mSharedPref.getString(REQUESTED_PREFIX + group, SecurityTier.TEE.label));
+        return tier != null ? tier : SecurityTier.TEE;
+    }
+
+    public void setTier(String group, SecurityTier tier) {
+        mSharedPref.edit().putString(REQUESTED_PREFIX + group, tier.label).apply();
+    }
+
+    /**
+     * @return the tier the key with the given alias was created in, or {@code null} if unknown
+     */
+    public SecurityTier getCreatedTier(String alias) {
+        return SecurityTier.fromLabel(mSharedPref.getString(CREATED_PREFIX + alias, ""));
+    }
+
+    public void setCreatedTier(String alias, SecurityTier tier) {
+        SharedPreferences.Editor editor = mSharedPref.edit();
+        if (tier == null) {
+            editor.remove(CREATED_PREFIX + alias);
+        } else {
+            editor.putString(CREATED_PREFIX + alias, tier.label);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @param groupAlias the alias of the group, see {@link #aliasOf(String, String)}
+     * @return the alias of the key new entries of the group are encrypted with
+     */
+    public String getCurrentAlias(String groupAlias) {
+        int version = getVersion(groupAlias);
+        return version > 1 ? groupAlias + VERSION_SEPARATOR + version : groupAlias;
+    }
+
+    /**
+     * @return the version of the group's key, 1 until it is rotated
+     */
+    public int getVersion(String groupAlias) {
+        return mSharedPref.getInt(VERSION_PREFIX + groupAlias, 1);
+    }
+
+    /**
+     * Moves the group to the next version of its key. If entries are still encrypted with the
+     * current one, it is recorded with the same write, so that an interrupted rotation resumes.
+     *
+     * @param fromAlias the alias whose entries are to be re-encrypted, {@code null} if none are
+     * @return the alias of the new version
+     */
+    public synchronized String startRotation(String groupAlias, String fromAlias) {
+        SharedPreferences.Editor editor = mSharedPref.edit();
+        editor.putInt(VERSION_PREFIX + groupAlias, getVersion(groupAlias) + 1);
+        if (fromAlias != null) {
+            editor.putString(ROTATING_PREFIX + groupAlias, fromAlias);
+        }
+        editor.commit();
+        return getCurrentAlias(groupAlias);
+    }
+
+    /**
+     * @return the alias of the key the group's entries are moving away from, or {@code null} if
+     * the group's key is not being rotated
+     */
+    public String getRotatingFrom(String groupAlias) {
+        return mSharedPref.getString(ROTATING_PREFIX + groupAlias, null);
+    }
+
+    public void endRotation(String groupAlias) {
+        mSharedPref.edit().remove(ROTATING_PREFIX + groupAlias)
+                .remove(ROTATION_FAILED_PREFIX + groupAlias).commit();
+    }
+
+    /**
+     * @return {@code true} if the last batch of the group's rotation failed, so it waits for the
+     * app to try it again
+     */
+    public boolean isRotationFailed(String groupAlias) {
+        return mSharedPref.getBoolean(ROTATION_FAILED_PREFIX + groupAlias, false);
+    }
+
+    public void setRotationFailed(String groupAlias, boolean failed) {
+        SharedPreferences.Editor editor = mSharedPref.edit();
+        if (failed) {
+            editor.putBoolean(ROTATION_FAILED_PREFIX + groupAlias, true);
+        } else {
+            editor.remove(ROTATION_FAILED_PREFIX + groupAlias);
+        }
+        editor.commit();
+    }
+
+    /**
+     * @return the aliases of the groups of the given plugin alias whose keys are being rotated
+     */
+    public List<String> getRotatingGroupAliases(String baseAlias) {
+        List<String> groupAliases = new ArrayList<String>();
+        for (String name : mSharedPref.getAll().keySet()) {
+            if (!name.startsWith(ROTATING_PREFIX)) {
+                continue;
+            }
+            String groupAlias = name.substring(ROTATING_PREFIX.length());
+            if (groupAlias.equals(baseAlias) || groupAlias.startsWith(baseAlias + "_")) {
+                groupAliases.add(groupAlias);
+            }
+        }
+        return groupAliases;
+    }
+}
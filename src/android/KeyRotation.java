@@ -0,0 +1,315 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.security.keystore.KeyInfo;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import org.apache.cordova.LOG;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Rotates the key of a key group: creates the next version of the key, which new entries are
+ * encrypted with right away, and re-encrypts the existing entries in the background, a few at a
+ * time, until none is left under the old key, which is then deleted.
+ *
+ * Each entry names the key it is encrypted with, so reads use the old or the new key depending on
+ * where the entry is at, and a rotation in progress needs no other state than the alias of the old
+ * key. That is recorded by {@link KeyGroups}, and the rotation resumes from it when the plugin
+ * starts again. Entries saved while a batch is being re-encrypted are left as saved. A batch that
+ * fails, or re-encrypts nothing, is recorded as failed and sent as an event, and the rotation
+ * waits until it is asked for again, or the plugin starts again.
+ *
+ * Keys that require authenticating for every use cannot be used without a prompt, so they are
+ * not rotated. Rotations of such keys started by earlier versions of the plugin finish as the
+ * entries are saved again: the old key is deleted once none are left.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+class KeyRotation {
+
+    private static final String TAG = "KeyRotation";
+    static final int BATCH_SIZE = 16;
+    static final long BATCH_DELAY_MILLIS = 200;
+    /**
+     * Delay before trying again to delete the old key while a prompt may still be using it
+     */
+    static final long RETRY_DELAY_MILLIS = 30000;
+
+    private final FingerprintAuthAux mAux;
+    private final FingerprintStore mStore;
+    private final KeyGroups mKeyGroups;
+    private final KeyStore mKeyStore;
+    private final String mBaseAlias;
+    private final Handler mHandler;
+    private final Executor mExecutor;
+    /**
+     * Group aliases with a batch scheduled
+     */
+    private final Set<String> mScheduled = new HashSet<String>();
+
+    /**
+     * @param baseAlias the plugin's key alias, which the entries without a key alias use
+     * @param handler   handler the batches are timed on
+     * @param executor  executor the batches run on, off the UI thread
+     */
+    KeyRotation(FingerprintAuthAux aux, FingerprintStore store, KeyGroups keyGroups,
+                KeyStore keyStore, String baseAlias, Handler handler, Executor executor) {
+        if (keyStore == null) {
+            // Kept for the background batches, which would only fail later on the thread pool.
+            throw new IllegalArgumentException("The key store is not loaded yet");
+        }
+        mAux = aux;
+        mStore = store;
+        mKeyGroups = keyGroups;
+        mKeyStore = keyStore;
+        mBaseAlias = baseAlias;
+        mHandler = handler;
+        mExecutor = executor;
+    }
+
+    /**
+     * Continues the rotations that were interrupted.
+     */
+    void resume() {
+        for (String groupAlias : mKeyGroups.getRotatingGroupAliases(mBaseAlias)) {
+            schedule(groupAlias, BATCH_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Moves the group to a new version of its key, or continues rotating it if it is being
+     * rotated, trying the last batch again if it failed. Creates the new key, so it is run off
+     * the UI thread.
+     *
+     * @param group the group, or an empty string for the entries saved without one
+     * @return the status of the rotation, see {@link #getStatus(String)}
+     * @throws AuthenticationRequiredException if the group's key requires authenticating for
+     *                                         every use
+     */
+    synchronized JSONObject rotate(String group) throws GeneralSecurityException {
+        String groupAlias = KeyGroups.aliasOf(mBaseAlias, group);
+        if (mKeyGroups.getRotatingFrom(groupAlias) == null) {
+            String fromAlias = mKeyGroups.getCurrentAlias(groupAlias);
+            SecretKey oldKey = getSecretKey(fromAlias);
+            if (oldKey != null && requiresAuthentication(oldKey)) {
+                // Its entries could only be re-encrypted with a prompt each.
+                throw new AuthenticationRequiredException();
+            }
+            String toAlias =
+                    mKeyGroups.startRotation(groupAlias, oldKey != null ? fromAlias : null);
+            if (oldKey != null) {
+                createKey(toAlias, mKeyGroups.getTier(group), requiresAuthentication(oldKey));
+            }
+            Log.i(TAG, "Rotating " + fromAlias + " to " + toAlias);
+        } else if (mKeyGroups.isRotationFailed(groupAlias)) {
+            mKeyGroups.setRotationFailed(groupAlias, false);
+        }
+        schedule(groupAlias, 0);
+        return getStatus(groupAlias);
+    }
+
+    /**
+     * @return {version, rotating, remaining, background, failed}: the version of the group's key,
+     * and while it is being rotated, the number of entries left under the old key, whether they
+     * are re-encrypted in the background, rather than as they are saved again, and whether the
+     * last batch failed
+     */
+    JSONObject getStatus(String groupAlias) {
+        JSONObject status = new JSONObject();
+        try {
+            status.put("version", mKeyGroups.getVersion(groupAlias));
+            String fromAlias = mKeyGroups.getRotatingFrom(groupAlias);
+            status.put("rotating", fromAlias != null);
+            if (fromAlias != null) {
+                status.put("remaining", mStore.keysWithKeyAlias(storedAlias(fromAlias)).size());
+                SecretKey oldKey = getSecretKey(fromAlias);
+                status.put("background", oldKey != null && !requiresAuthentication(oldKey));
+                status.put("failed", mKeyGroups.isRotationFailed(groupAlias));
+            }
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        return status;
+    }
+
+    private void schedule(final String groupAlias, long delayMillis) {
+        synchronized (mScheduled) {
+            if (!mScheduled.add(groupAlias)) {
+                return;
+            }
+        }
+        mHandler.postDelayed(new Runnable() {
+            public void run() {
+                mExecutor.execute(new Runnable() {
+                    public void run() {
+                        synchronized (mScheduled) {
+                            mScheduled.remove(groupAlias);
+                        }
+                        try {
+                            runBatch(groupAlias);
+                        } catch (GeneralSecurityException e) {
+                            fail(groupAlias, e.getClass().getSimpleName());
+                        }
+                    }
+                });
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Re-encrypts the next batch of entries, or deletes the old key once no entry is left under
+     * it, and schedules the next run if there is more to do.
+     */
+    private synchronized void runBatch(String groupAlias) throws GeneralSecurityException {
+        String fromAlias = mKeyGroups.getRotatingFrom(groupAlias);
+        if (fromAlias == null) {
+            return;
+        }
+        String toAlias = mKeyGroups.getCurrentAlias(groupAlias);
+        List<String> keys = mStore.keysWithKeyAlias(storedAlias(fromAlias));
+        SecretKey oldKey = getSecretKey(fromAlias);
+        if (keys.isEmpty() || oldKey == null) {
+            // A prompt that was shown before the last entries moved may still use the old key.
+            if (!mAux.canReleaseKeys()) {
+                schedule(groupAlias, RETRY_DELAY_MILLIS);
+                return;
+            }
+            // Without the old key, entries left under it cannot be read anymore.
+            mStore.deleteWithKeyAlias(storedAlias(fromAlias));
+            mKeyStore.deleteEntry(fromAlias);
+            mKeyGroups.setCreatedTier(fromAlias, null);
+            mKeyGroups.endRotation(groupAlias);
+            Log.i(TAG, "Rotated " + fromAlias + " to " + toAlias);
+            return;
+        }
+        if (requiresAuthentication(oldKey)) {
+            // Resumed on the next start, to find out whether the entries were saved again.
+            return;
+        }
+        SecretKey newKey = getSecretKey(toAlias);
+        if (newKey == null) {
+            // Not created, or invalidated since.
+            SecurityTier tier = mKeyGroups.getCreatedTier(fromAlias);
+            createKey(toAlias, tier != null ? tier : SecurityTier.TEE, false);
+            newKey = getSecretKey(toAlias);
+        }
+
+        Cipher cipher = FingerprintAuthAux.createCipher();
+        Map<String, FingerprintStore.Entry> entries = new HashMap<String, FingerprintStore.Entry>();
+        Map<String, byte[]> cipherTexts = new HashMap<String, byte[]>();
+        Map<String, byte[]> ivs = new HashMap<String, byte[]>();
+        for (String key : keys.subList(0, Math.min(BATCH_SIZE, keys.size()))) {
+            FingerprintStore.Entry entry = mStore.get(key);
+            if (entry == null) {
+                continue;
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, oldKey, new IvParameterSpec(entry.iv));
+                byte[] plainText = cipher.doFinal(entry.cipherText);
+                cipher.init(Cipher.ENCRYPT_MODE, newKey);
+                cipherTexts.put(key, cipher.doFinal(plainText));
+                ivs.put(key, cipher.getIV());
+                Arrays.fill(plainText, (byte) 0);
+                entries.put(key, entry);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Failed to re-encrypt an entry: " + e.getClass().getSimpleName());
+            }
+        }
+        if (entries.isEmpty()) {
+            // Nothing in the batch could be re-encrypted, and the next run would take the same.
+            fail(groupAlias, "No entry of the batch could be re-encrypted");
+            return;
+        }
+        mStore.replace(entries, cipherTexts, ivs, storedAlias(toAlias));
+        if (mKeyGroups.isRotationFailed(groupAlias)) {
+            mKeyGroups.setRotationFailed(groupAlias, false);
+        }
+        schedule(groupAlias, BATCH_DELAY_MILLIS);
+    }
+
+    /**
+     * Stops the rotation until it is asked for again, records that it failed, so that
+     * {@link #getStatus(String)} reports it, and tells the app.
+     */
+    private void fail(String groupAlias, String reason) {
+        Log.e(TAG, "Rotation of " + groupAlias + " stopped: " + reason);
+        mKeyGroups.setRotationFailed(groupAlias, true);
+        String group = groupAlias.equals(mBaseAlias) ? ""
+                : groupAlias.substring(mBaseAlias.length() + 1);
+        FingerprintEvents.send(FingerprintEvents.Type.ROTATION_FAILED, 0, reason, group);
+    }
+
+    /**
+     * @return the key alias as stored with the entries, {@code null} for the plugin's alias
+     */
+    private String storedAlias(String alias) {
+        return alias.equals(mBaseAlias) ? null : alias;
+    }
+
+    private SecretKey getSecretKey(String alias) throws GeneralSecurityException {
+        try {
+            return FingerprintStore.getSecretKey(mKeyStore, alias);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    private void createKey(String alias, SecurityTier tier, boolean userAuthenticationRequired)
+            throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES,
+                mKeyStore.getProvider());
+        try {
+            mKeyGroups.setCreatedTier(alias, tier.createKey(mKeyStore, keyGenerator, alias,
+                    userAuthenticationRequired));
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Thrown when asked to rotate a key that requires authenticating for every use.
+     */
+    static class AuthenticationRequiredException extends GeneralSecurityException {
+        AuthenticationRequiredException() {
+            super("The key requires authentication for every use");
+        }
+    }
+
+    /**
+     * @return {@code true} if the key can only be used after authenticating, or if that could not
+     * be found out
+     */
+    static boolean requiresAuthentication(SecretKey key) {
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(key.getAlgorithm(),
+                    "AndroidKeyStore");
+            KeyInfo keyInfo = (KeyInfo) factory.getKeySpec(key, KeyInfo.class);
+            return keyInfo.isUserAuthenticationRequired();
+        } catch (GeneralSecurityException e) {
+            // Treated as if it did, which only keeps its entries from being re-encrypted.
+            return true;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Contexts whose resources resolve the dialog strings in a given language, created once per
+ * language and kept, so a setLocale call does not reconfigure the Resources the host app uses.
+ */
+class LocalizedContexts {
+
+    private static final ConcurrentHashMap<String, Context> sContexts =
+            new ConcurrentHashMap<String, Context>();
+
+    private LocalizedContexts() {
+    }
+
+    /**
+     * @param langCode a language with an optional country, as "es", "en_US" or "pt-BR"
+     */
+    static Context get(Context context, String langCode) {
+        Context localized = sContexts.get(langCode);
+        if (localized == null) {
+            Configuration conf = new Configuration(context.getResources().getConfiguration());
+            conf.setLocale(toLocale(langCode));
+            localized = context.createConfigurationContext(conf);
+            Context previous = sContexts.putIfAbsent(langCode, localized);
+            if (previous != null) {
+                localized = previous;
+            }
+        }
+        return localized;
+    }
+
+    static Locale toLocale(String langCode) {
+        String[] parts = langCode.split("[_-]", 2);
+        return parts.length > 1 ? new Locale(parts[0].toLowerCase(Locale.ROOT),
+                parts[1].toUpperCase(Locale.ROOT)) : new Locale(parts[0].toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,110 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+
+/**
+ * A request that needs the fingerprint dialog, together with every caller waiting for its result.
+ *
+ * Only one prompt is shown at a time. Verify requests for a key that already has a prompt
+ * showing or queued attach to it instead of opening a second dialog, so all of them receive the
+ * single result. They also share the deadline of the call that opened the prompt.
+ */
+public class PendingPrompt {
+
+    final int mode;
+    final String key;
+    final String message;
+    final String toEncrypt;
+    /**
+     * Whether to compress the value to save
+     */
+    final boolean compress;
+    /**
+     * Alias of the key to encrypt with, {@code null} for the default key
+     */
+    final String alias;
+    /**
+     * Wall clock time at which the entry to save expires, 0 if it does not
+     */
+    final long expiresAt;
+    /**
+     * The saves and deletes to write together, {@code null} unless the prompt is for a transaction
+     */
+    final FingerprintStore.Transaction transaction;
+    /**
+     * When the prompt was requested, as returned by {@link System#nanoTime()}
+     */
+    final long startNanos = System.nanoTime();
+    /**
+     * The cipher authorized by this prompt, set once it has been initialized and released once
+     * the prompt is finished
+     */
+    volatile Cipher cipher;
+    /**
+     * The entry to decrypt, read together with the IV the cipher was initialized with
+     */
+    volatile FingerprintStore.Entry entry;
+    /**
+     * Ends the prompt when its deadline passes, if the call gave a timeout
+     */
+    Runnable timeout;
+
+    private final List<CallbackContext> mCallbacks = new ArrayList<CallbackContext>(1);
+
+    PendingPrompt(int mode, String key, String message, String toEncrypt, boolean compress,
+                  String alias, long expiresAt, CallbackContext callbackContext) {
+        this.mode = mode;
+        this.key = key;
+        this.message = message;
+        this.toEncrypt = toEncrypt;
+        this.compress = compress;
+        this.alias = alias;
+        this.expiresAt = expiresAt;
+        this.transaction = null;
+        mCallbacks.add(callbackContext);
+    }
+
+    /**
+     * A prompt authorizing the encryption of the values of a transaction.
+     */
+    PendingPrompt(FingerprintStore.Transaction transaction, String alias,
+                  CallbackContext callbackContext) {
+        this.mode = Cipher.ENCRYPT_MODE;
+        this.key = null;
+        this.message = null;
+        this.toEncrypt = null;
+        this.compress = false;
+        this.alias = alias;
+        this.expiresAt = 0;
+        this.transaction = transaction;
+        mCallbacks.add(callbackContext);
+    }
+
+    /**
+     * @return {@code true} if a request for the given mode and key can share this prompt's result
+     */
+    boolean canJoin(int mode, String key) {
+        return this.mode == Cipher.DECRYPT_MODE && mode == Cipher.DECRYPT_MODE
+                && this.key.equals(key);
+    }
+
+    void attach(CallbackContext callbackContext) {
+        mCallbacks.add(callbackContext);
+    }
+
+    int getCallbackCount() {
+        return mCallbacks.size();
+    }
+
+    void sendPluginResult(PluginResult pluginResult) {
+        for (CallbackContext callbackContext : mCallbacks) {
+            callbackContext.sendPluginResult(pluginResult);
+        }
+    }
+}
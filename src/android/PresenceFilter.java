@@ -0,0 +1,131 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+/**
+ * Bloom filter over the keys of the stored entries, which answers most lookups of keys that were
+ * never saved without opening the file the entry would be in.
+ *
+ * A key that was added is always reported as possibly present; a key that was not is reported
+ * as possibly present about once in a hundred lookups while no more keys than the capacity were
+ * added. Keys cannot be taken out, so deleted keys stay possibly present until the filter is
+ * built again from the stored keys.
+ */
+class PresenceFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] mBits;
+    private final int mCapacity;
+    private int mCount;
+
+    /**
+     * @param capacity number of keys the filter is sized for
+     */
+    PresenceFilter(int capacity) {
+        this(new long[Math.max(1, (capacity * BITS_PER_KEY + 63) / 64)], capacity, 0);
+    }
+
+    private PresenceFilter(long[] bits, int capacity, int count) {
+        mBits = bits;
+        mCapacity = capacity;
+        mCount = count;
+    }
+
+    /**
+     * @return the filter written by {@link #toBytes()}, or {@code null} if the bytes are not one
+     */
+    static PresenceFilter fromBytes(byte[] bytes, int count) {
+        if (bytes.length < 8 || bytes.length % 8 != 0) {
+            return null;
+        }
+        long[] bits = new long[bytes.length / 8];
+        for (int i = 0; i < bits.length; i++) {
+            long word = 0;
+            for (int b = 0; b < 8; b++) {
+                word = (word << 8) | (bytes[i * 8 + b] & 0xff);
+            }
+            bits[i] = word;
+        }
+        return new PresenceFilter(bits, bits.length * 64 / BITS_PER_KEY, count);
+    }
+
+    byte[] toBytes() {
+        byte[] bytes = new byte[mBits.length * 8];
+        for (int i = 0; i < mBits.length; i++) {
+            for (int b = 0; b < 8; b++) {
+                bytes[i * 8 + b] = (byte) (mBits[i] >>> (56 - 8 * b));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return {@code false} if the key was certainly never added
+     */
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bitCount = mBits.length * 64L;
+        for (int i = 1; i <= HASH_COUNT; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bitCount;
+            if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the filter changed, {@code false} if the key was possibly present
+     * already
+     */
+    boolean add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bitCount = mBits.length * 64L;
+        boolean changed = false;
+        for (int i = 1; i <= HASH_COUNT; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bitCount;
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            if ((mBits[word] & mask) == 0) {
+                mBits[word] |= mask;
+                changed = true;
+            }
+        }
+        if (changed) {
+            mCount++;
+        }
+        return changed;
+    }
+
+    /**
+     * @return the number of keys added that changed the filter
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return {@code true} once more keys were added than the filter is sized for, and it reports
+     * too many missing keys as possibly present
+     */
+    boolean isFull() {
+        return mCount > mCapacity;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the key, which reads the key without copying it.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,111 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyInfo;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
+import java.security.cert.CertificateException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+
+/**
+ * Where a key of the Android Key Store lives: the trusted execution environment, which is the
+ * default, or a StrongBox secure element. StrongBox keys are better isolated but their
+ * operations are much slower, so it pays to keep them for the secrets that need it.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public enum SecurityTier {
+    TEE("tee"),
+    STRONG_BOX("strongBox");
+
+    /**
+     * Level of a key outside of secure hardware
+     */
+    static final String SOFTWARE = "software";
+
+    final String label;
+
+    SecurityTier(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the tier with the given label, or {@code null} if there is none
+     */
+    static SecurityTier fromLabel(String label) {
+        for (SecurityTier tier : values()) {
+            if (tier.label.equals(label)) {
+                return tier;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates an AES key for the plugin under the given alias in this tier, or in the TEE if the
+     * device has no StrongBox.
+     *
+     * @return the tier the key was created in
+     */
+    SecurityTier createKey(KeyStore keyStore, KeyGenerator keyGenerator, String alias,
+                           boolean userAuthenticationRequired)
+            throws CertificateException, IOException, NoSuchAlgorithmException,
+            InvalidAlgorithmParameterException {
+        if (this == STRONG_BOX && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            try {
+                FingerprintStore.createKey(keyStore, keyGenerator,
+                        createSpec(alias, userAuthenticationRequired, true));
+                return STRONG_BOX;
+            } catch (ProviderException e) {
+                // StrongBoxUnavailableException, which only exists from API 28 on.
+            }
+        }
+        FingerprintStore.createKey(keyStore, keyGenerator,
+                createSpec(alias, userAuthenticationRequired, false));
+        return TEE;
+    }
+
+    @TargetApi(Build.VERSION_CODES.P)
+    private static KeyGenParameterSpec createSpec(String alias, boolean userAuthenticationRequired,
+                                                  boolean strongBox) {
+        // Set the alias of the entry in Android KeyStore where the key will appear
+        // and the constrains (purposes) in the constructor of the Builder
+        KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(alias,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_CBC)
+                .setUserAuthenticationRequired(userAuthenticationRequired)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_PKCS7);
+        if (strongBox) {
+            builder.setIsStrongBoxBacked(true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return where the given key, created in this tier, actually lives: the tier's label, or
+     * "software" if the key store has no secure hardware
+     */
+    String levelOf(SecretKey key) {
+        if (this == STRONG_BOX) {
+            return label;
+        }
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(key.getAlgorithm(),
+                    "AndroidKeyStore");
+            KeyInfo keyInfo = (KeyInfo) factory.getKeySpec(key, KeyInfo.class);
+            return keyInfo.isInsideSecureHardware() ? label : SOFTWARE;
+        } catch (GeneralSecurityException e) {
+            return label;
+        }
+    }
+}
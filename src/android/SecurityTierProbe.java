@@ -0,0 +1,147 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import org.apache.cordova.LOG;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Finds out which security tiers the device offers and how fast each one encrypts and decrypts,
+ * by creating a throwaway key in each tier and timing a few small operations with it.
+ *
+ * The last measurements are kept so that they can be reported along with the key groups.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class SecurityTierProbe {
+
+    private static final String TAG = "SecurityTierProbe";
+    private static final String PROBE_ALIAS_SUFFIX = "Probe";
+    /**
+     * Timed operations per tier, after one untimed round
+     */
+    private static final int CALIBRATION_ROUNDS = 8;
+    private static final byte[] CALIBRATION_DATA = new byte[16];
+
+    private static final Map<SecurityTier, JSONObject> sResults =
+            new EnumMap<SecurityTier, JSONObject>(SecurityTier.class);
+
+    private SecurityTierProbe() {
+    }
+
+    /**
+     * Probes every tier. Takes from milliseconds to seconds, so it is run off the UI thread.
+     *
+     * @return {tiers: [{tier, available, level, encryptMicros, decryptMicros}, ...]}, where
+     * level tells where the probe key actually lived
+     */
+    public static JSONObject probe(Context context, KeyStore keyStore, KeyGenerator keyGenerator,
+                                   String baseAlias) {
+        JSONArray tiers = new JSONArray();
+        for (SecurityTier tier : SecurityTier.values()) {
+            JSONObject result = probe(context, keyStore, keyGenerator, baseAlias, tier);
+            synchronized (sResults) {
+                sResults.put(tier, result);
+            }
+            tiers.put(result);
+        }
+        JSONObject resultJson = new JSONObject();
+        try {
+            resultJson.put("tiers", tiers);
+        } catch (JSONException e) {
+            LOG.e(TAG, e.getMessage(), e);
+        }
+        return resultJson;
+    }
+
+    /**
+     * @return the last probe result for the tier, or {@code null} if it was not probed yet
+     */
+    public static JSONObject getResult(SecurityTier tier) {
+        synchronized (sResults) {
+            return sResults.get(tier);
+        }
+    }
+
+    private static JSONObject probe(Context context, KeyStore keyStore, KeyGenerator keyGenerator,
+                                    String baseAlias, SecurityTier tier) {
+        JSONObject result = new JSONObject();
+        String alias = baseAlias + PROBE_ALIAS_SUFFIX;
+        try {
+            result.put("tier", tier.label);
+            if (tier == SecurityTier.STRONG_BOX && !hasStrongBox(context)) {
+                result.put("available", false);
+                return result;
+            }
+            if (tier.createKey(keyStore, keyGenerator, alias, false) != tier) {
+                result.put("available", false);
+                return result;
+            }
+            SecretKey key = FingerprintStore.getSecretKey(keyStore, alias);
+            result.put("available", true);
+            result.put("level", tier.levelOf(key));
+            calibrate(key, result);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to probe " + tier.label + ": " + e.getClass().getSimpleName());
+            try {
+                result.put("available", false);
+                result.put("error", e.getClass().getSimpleName());
+            } catch (JSONException jsonException) {
+                LOG.e(TAG, jsonException.getMessage(), jsonException);
+            }
+        } finally {
+            try {
+                keyStore.deleteEntry(alias);
+            } catch (KeyStoreException e) {
+                Log.e(TAG, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasStrongBox(Context context) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && context.getPackageManager()
+                .hasSystemFeature(PackageManager.FEATURE_STRONGBOX_KEYSTORE);
+    }
+
+    /**
+     * Times the initialization and a 16 byte doFinal of an encrypt and a decrypt, like a save and
+     * a verify do them.
+     */
+    private static void calibrate(SecretKey key, JSONObject result) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS7Padding");
+        long encryptNanos = 0;
+        long decryptNanos = 0;
+        for (int round = 0; round <= CALIBRATION_ROUNDS; round++) {
+            long start = System.nanoTime();
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            byte[] enc = cipher.doFinal(CALIBRATION_DATA);
+            byte[] iv = cipher.getIV();
+            long encrypted = System.nanoTime();
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+            cipher.doFinal(enc);
+            long decrypted = System.nanoTime();
+            if (round > 0) {
+                encryptNanos += encrypted - start;
+                decryptNanos += decrypted - encrypted;
+            }
+        }
+        result.put("encryptMicros", encryptNanos / CALIBRATION_ROUNDS / 1000);
+        result.put("decryptMicros", decryptNanos / CALIBRATION_ROUNDS / 1000);
+    }
+}
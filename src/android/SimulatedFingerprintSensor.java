@@ -0,0 +1,218 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fingerprint sensor that plays back a script instead of waiting for a finger, so the whole
+ * save and verify flow, dialog included, can be driven by tests.
+ *
+ * A script is a comma separated list of steps, each an outcome optionally followed by a delay in
+ * milliseconds, e.g. {@code "fail:300,help:200,success:400"}. The outcomes are success, fail
+ * (finger not recognized), help (partial finger), error, lockout and lockoutPermanent. Every
+ * authentication plays steps from where the previous one stopped until a success or an error,
+ * wrapping around at the end of the script.
+ *
+ * It does not authorize the crypto object, so keys are created without requiring
+ * authentication while it is in use.
+ */
+@TargetApi(23)
+public class SimulatedFingerprintSensor implements FingerprintSensor {
+
+    private static final int ERROR_UNABLE_TO_PROCESS = 2;
+    private static final int ERROR_CANCELED = 5;
+    private static final int ERROR_LOCKOUT = 7;
+    private static final int ERROR_LOCKOUT_PERMANENT = 9;
+    private static final int ACQUIRED_PARTIAL = 1;
+
+    enum Outcome {
+        SUCCESS("success", true),
+        FAIL("fail", false),
+        HELP("help", false),
+        ERROR("error", true),
+        LOCKOUT("lockout", true),
+        LOCKOUT_PERMANENT("lockoutPermanent", true);
+
+        private final String label;
+        /**
+         * Whether the outcome ends the authentication, like success and errors do on the sensor
+         */
+        private final boolean terminal;
+
+        Outcome(String label, boolean terminal) {
+            this.label = label;
+            this.terminal = terminal;
+        }
+    }
+
+    static final class Step {
+
+        final Outcome outcome;
+        final long delayMillis;
+
+        Step(Outcome outcome, long delayMillis) {
+            this.outcome = outcome;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mDefaultDelayMillis;
+    private List<Step> mSteps;
+    private int mPosition;
+
+    /**
+     * @param script             the steps to play back
+     * @param defaultDelayMillis delay of the steps that do not give one
+     * @throws IllegalArgumentException if the script cannot be parsed
+     */
+    public SimulatedFingerprintSensor(String script, long defaultDelayMillis) {
+        mDefaultDelayMillis = defaultDelayMillis;
+        setScript(script);
+    }
+
+    /**
+     * Replaces the script; the next authentication starts at its first step.
+     *
+     * @throws IllegalArgumentException if the script cannot be parsed
+     */
+    public synchronized void setScript(String script) {
+        mSteps = parse(script, mDefaultDelayMillis);
+        mPosition = 0;
+    }
+
+    static List<Step> parse(String script, long defaultDelayMillis) {
+        List<Step> steps = new ArrayList<Step>();
+        for (String token : script.split(",")) {
+            token = token.trim();
+            if (token.length() == 0) {
+                continue;
+            }
+            int separator = token.indexOf(':');
+            String label = separator < 0 ? token : token.substring(0, separator);
+            long delayMillis = defaultDelayMillis;
+            if (separator >= 0) {
+                try {
+                    delayMillis = Long.parseLong(token.substring(separator + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid delay in step: " + token);
+                }
+            }
+            steps.add(new Step(outcomeOf(label), Math.max(0, delayMillis)));
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("The script has no steps");
+        }
+        return steps;
+    }
+
+    private static Outcome outcomeOf(String label) {
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome.label.equals(label)) {
+                return outcome;
+            }
+        }
+        throw new IllegalArgumentException("Unknown outcome: " + label);
+    }
+
+    private synchronized Step nextStep() {
+        Step step = mSteps.get(mPosition);
+        mPosition = (mPosition + 1) % mSteps.size();
+        return step;
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return true;
+    }
+
+    @Override
+    public boolean hasEnrolledFingerprints() {
+        return true;
+    }
+
+    @Override
+    public void authenticate(FingerprintManager.CryptoObject cryptoObject,
+                             CancellationSignal cancellationSignal,
+                             FingerprintManager.AuthenticationCallback callback) {
+        Session session = new Session(callback);
+        cancellationSignal.setOnCancelListener(session);
+        session.scheduleNextStep();
+    }
+
+    /**
+     * One authentication, played back on the main thread.
+     */
+    private final class Session implements Runnable, CancellationSignal.OnCancelListener {
+
+        private final FingerprintManager.AuthenticationCallback mCallback;
+        private Step mStep;
+        private boolean mFinished;
+
+        Session(FingerprintManager.AuthenticationCallback callback) {
+            mCallback = callback;
+        }
+
+        void scheduleNextStep() {
+            mStep = nextStep();
+            mHandler.postDelayed(this, mStep.delayMillis);
+        }
+
+        @Override
+        public void run() {
+            if (mFinished) {
+                return;
+            }
+            mFinished = mStep.outcome.terminal;
+            switch (mStep.outcome) {
+                case SUCCESS:
+                    // The result only carries the crypto object, which nobody reads back.
+                    mCallback.onAuthenticationSucceeded((FingerprintManager.AuthenticationResult) null);
+                    break;
+                case FAIL:
+                    mCallback.onAuthenticationFailed();
+                    break;
+                case HELP:
+                    mCallback.onAuthenticationHelp(ACQUIRED_PARTIAL,
+                            "Partial fingerprint detected. Please try again.");
+                    break;
+                case ERROR:
+                    mCallback.onAuthenticationError(ERROR_UNABLE_TO_PROCESS,
+                            "Fingerprint could not be processed.");
+                    break;
+                case LOCKOUT:
+                    mCallback.onAuthenticationError(ERROR_LOCKOUT,
+                            "Too many attempts. Try again later.");
+                    break;
+                case LOCKOUT_PERMANENT:
+                    mCallback.onAuthenticationError(ERROR_LOCKOUT_PERMANENT,
+                            "Too many attempts. Fingerprint sensor disabled.");
+                    break;
+            }
+            if (!mFinished) {
+                scheduleNextStep();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            mHandler.removeCallbacks(this);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onAuthenticationError(ERROR_CANCELED, "Fingerprint operation canceled.");
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.annotation.TargetApi;
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.CancellationSignal;
+
+/**
+ * The device fingerprint sensor, through {@link FingerprintManager}.
+ */
+@TargetApi(23)
+public class SystemFingerprintSensor implements FingerprintSensor {
+
+    private final FingerprintManager mFingerprintManager;
+
+    public SystemFingerprintSensor(FingerprintManager fingerprintManager) {
+        mFingerprintManager = fingerprintManager;
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return mFingerprintManager.isHardwareDetected();
+    }
+
+    @Override
+    public boolean hasEnrolledFingerprints() {
+        return mFingerprintManager.hasEnrolledFingerprints();
+    }
+
+    @Override
+    public void authenticate(FingerprintManager.CryptoObject cryptoObject,
+                             CancellationSignal cancellationSignal,
+                             FingerprintManager.AuthenticationCallback callback) {
+        mFingerprintManager.authenticate(cryptoObject, cancellationSignal, 0 /* flags */, callback,
+                null);
+    }
+}
@@ -0,0 +1,78 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * JVM stand-in for the Cordova class of the same name. Results go to the web view, as in
+ * Cordova, and the callback is finished by the first result that does not keep it.
+ */
+public class CallbackContext {
+
+    private final String mCallbackId;
+    private final CordovaWebView mWebView;
+    private boolean mFinished;
+
+    public CallbackContext(String callbackId, CordovaWebView webView) {
+        mCallbackId = callbackId;
+        mWebView = webView;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public boolean isChangingThreads() {
+        return false;
+    }
+
+    public String getCallbackId() {
+        return mCallbackId;
+    }
+
+    public void sendPluginResult(PluginResult pluginResult) {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = !pluginResult.getKeepCallback();
+        }
+        mWebView.sendPluginResult(pluginResult, mCallbackId);
+    }
+
+    public void success(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(JSONArray message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(byte[] message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(int message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success() {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK));
+    }
+
+    public void error(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    public void error(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    public void error(int message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+}
@@ -0,0 +1,21 @@
+package org.apache.cordova;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * JVM stand-in for the Cordova interface of the same name, with the methods the plugin uses.
+ */
+public interface CordovaInterface {
+
+    Activity getActivity();
+
+    Context getContext();
+
+    ExecutorService getThreadPool();
+
+    void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode);
+}
@@ -0,0 +1,46 @@
+package org.apache.cordova;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Cordova class of the same name: the preferences of config.xml, set by
+ * the tests instead.
+ */
+public class CordovaPreferences {
+
+    private final Map<String, String> mPrefs = new HashMap<String, String>();
+
+    public void set(String name, String value) {
+        mPrefs.put(name.toLowerCase(Locale.ENGLISH), value);
+    }
+
+    public void set(String name, boolean value) {
+        set(name, String.valueOf(value));
+    }
+
+    public void set(String name, int value) {
+        set(name, String.valueOf(value));
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int getInteger(String name, int defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : Integer.decode(value);
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : value;
+    }
+}
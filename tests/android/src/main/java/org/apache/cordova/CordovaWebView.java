@@ -0,0 +1,15 @@
+package org.apache.cordova;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in for the Cordova interface of the same name, with the methods the plugin uses.
+ */
+public interface CordovaWebView {
+
+    CordovaPreferences getPreferences();
+
+    void sendPluginResult(PluginResult cr, String callbackId);
+
+    Context getContext();
+}
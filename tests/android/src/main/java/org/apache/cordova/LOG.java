@@ -0,0 +1,41 @@
+package org.apache.cordova;
+
+import android.util.Log;
+
+/**
+ * JVM stand-in for the Cordova class of the same name, logging through {@link Log}.
+ */
+public class LOG {
+
+    public static void v(String tag, String s) {
+        Log.v(tag, s);
+    }
+
+    public static void d(String tag, String s) {
+        Log.d(tag, s);
+    }
+
+    public static void i(String tag, String s) {
+        Log.i(tag, s);
+    }
+
+    public static void w(String tag, String s) {
+        Log.w(tag, s);
+    }
+
+    public static void e(String tag, String s) {
+        Log.e(tag, s);
+    }
+
+    public static void e(String tag, String s, Throwable e) {
+        Log.e(tag, s, e);
+    }
+
+    public static void e(String tag, String s, Object... args) {
+        Log.e(tag, String.format(s, args));
+    }
+
+    public static boolean isLoggable(int logLevel) {
+        return Log.isLoggable("CordovaLog", logLevel);
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.cordova;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * JVM stand-in for the Cordova class of the same name, keeping the status and the message as
+ * JSON text so the tests can check what the plugin answered.
+ */
+public class PluginResult {
+
+    public enum Status {
+        NO_RESULT,
+        OK,
+        CLASS_NOT_FOUND_EXCEPTION,
+        ILLEGAL_ACCESS_EXCEPTION,
+        INSTANTIATION_EXCEPTION,
+        MALFORMED_URL_EXCEPTION,
+        IO_EXCEPTION,
+        INVALID_ACTION,
+        JSON_EXCEPTION,
+        ERROR
+    }
+
+    private final int mStatus;
+    private final String mMessage;
+    private boolean mKeepCallback;
+
+    public PluginResult(Status status) {
+        this(status, (String) null);
+    }
+
+    public PluginResult(Status status, String message) {
+        mStatus = status.ordinal();
+        mMessage = message == null ? null : JSONObject.quote(message);
+    }
+
+    public PluginResult(Status status, JSONArray message) {
+        mStatus = status.ordinal();
+        mMessage = message.toString();
+    }
+
+    public PluginResult(Status status, JSONObject message) {
+        mStatus = status.ordinal();
+        mMessage = message.toString();
+    }
+
+    public PluginResult(Status status, int i) {
+        mStatus = status.ordinal();
+        mMessage = Integer.toString(i);
+    }
+
+    public PluginResult(Status status, float f) {
+        mStatus = status.ordinal();
+        mMessage = Float.toString(f);
+    }
+
+    public PluginResult(Status status, boolean b) {
+        mStatus = status.ordinal();
+        mMessage = Boolean.toString(b);
+    }
+
+    public PluginResult(Status status, byte[] data) {
+        mStatus = status.ordinal();
+        mMessage = Base64.encodeToString(data, Base64.NO_WRAP);
+    }
+
+    public PluginResult(Status status, List<PluginResult> multipartMessages) {
+        mStatus = status.ordinal();
+        mMessage = null;
+    }
+
+    public void setKeepCallback(boolean b) {
+        mKeepCallback = b;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    public boolean getKeepCallback() {
+        return mKeepCallback;
+    }
+}
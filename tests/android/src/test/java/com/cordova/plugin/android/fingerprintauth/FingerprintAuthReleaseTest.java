@@ -0,0 +1,236 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.fingerprint.FingerprintManager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowDialog;
+import org.robolectric.shadows.ShadowWindowManagerImpl;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.lang.ref.WeakReference;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a verify left waiting for a finger does not keep its dialog, cipher and callback
+ * once the page is reset or the activity destroyed, while the plugin itself lives on.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = "src/test/AndroidManifest.xml",
+        resourceDir = "../../../../res/android")
+public class FingerprintAuthReleaseTest {
+
+    private static final String KEY = "account";
+    private static final String DIALOG_FRAGMENT_TAG = "FpAuthDialog";
+
+    private ActivityController<Activity> mActivityController;
+    private TestCordova mCordova;
+    private TestWebView mWebView;
+    private FingerprintAuth mPlugin;
+
+    @BeforeClass
+    public static void installProviders() {
+        Security.addProvider(new BouncyCastleProvider());
+        SoftwareKeyStoreProvider.install();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Shadows.shadowOf(RuntimeEnvironment.application)
+                .grantPermissions(Manifest.permission.USE_FINGERPRINT);
+        mActivityController = Robolectric.buildActivity(Activity.class).setup();
+        mCordova = new TestCordova(mActivityController.get());
+        CordovaPreferences preferences = new CordovaPreferences();
+        // A finger that only comes after the test is over, so the dialog stays up.
+        preferences.set("TouchIDSimulatedSensor", "success:3600000");
+        mWebView = new TestWebView(preferences);
+        mPlugin = new FingerprintAuth();
+        mPlugin.privateInitialize(mCordova, mWebView, preferences);
+
+        CallbackContext save = new CallbackContext("save", mWebView);
+        mPlugin.execute("save", new JSONArray().put(KEY).put("secret").put(false), save);
+        assertEquals(PluginResult.Status.OK.ordinal(), mWebView.getResult("save").getStatus());
+    }
+
+    @Test
+    public void resetLetsGoOfTheVerify() throws Exception {
+        List<WeakReference<?>> prompt = startVerify();
+
+        mPlugin.onReset();
+        mActivityController.get().getFragmentManager().executePendingTransactions();
+
+        assertEquals(PluginResult.Status.ERROR.ordinal(), mWebView.getResult("verify").getStatus());
+        assertUnreachable(prompt);
+    }
+
+    @Test
+    public void destroyLetsGoOfTheVerify() throws Exception {
+        List<WeakReference<?>> prompt = startVerify();
+
+        mPlugin.onDestroy();
+        mActivityController.pause().stop().destroy();
+        // The plugin is kept, as a leak would be found through it; the activity goes.
+        mActivityController = null;
+        mCordova.mActivity = null;
+
+        assertEquals(PluginResult.Status.ERROR.ordinal(), mWebView.getResult("verify").getStatus());
+        assertUnreachable(prompt);
+    }
+
+    /**
+     * Starts a verify and waits for its dialog.
+     *
+     * @return weak references to the dialog, its cipher and the callback of the verify
+     */
+    private List<WeakReference<?>> startVerify() throws Exception {
+        CallbackContext verify = new CallbackContext("verify", mWebView);
+        mPlugin.execute("verify", new JSONArray().put(KEY).put("Log in"), verify);
+        Activity activity = mActivityController.get();
+        activity.getFragmentManager().executePendingTransactions();
+        Fragment fragment = activity.getFragmentManager().findFragmentByTag(DIALOG_FRAGMENT_TAG);
+        assertNotNull("The dialog is not showing", fragment);
+        FingerprintManager.CryptoObject cryptoObject =
+                ReflectionHelpers.getField(fragment, "mCryptoObject");
+        Cipher cipher = cryptoObject.getCipher();
+        assertNull(mWebView.getResult("verify"));
+
+        List<WeakReference<?>> references = new ArrayList<WeakReference<?>>();
+        references.add(new WeakReference<Object>(fragment));
+        references.add(new WeakReference<Object>(cipher));
+        references.add(new WeakReference<Object>(verify));
+        return references;
+    }
+
+    private static void assertUnreachable(List<WeakReference<?>> references)
+            throws InterruptedException {
+        // Robolectric keeps the dialogs shown and their windows, even once dismissed, and through
+        // them the fragment, their listener.
+        Shadows.shadowOf(RuntimeEnvironment.application).setLatestDialog(null);
+        ShadowDialog.reset();
+        ShadowWindowManagerImpl.reset();
+        String[] names = {"dialog", "cipher", "callback"};
+        for (int i = 0; i < references.size(); i++) {
+            WeakReference<?> reference = references.get(i);
+            for (int attempt = 0; attempt < 20 && reference.get() != null; attempt++) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            assertNull("The " + names[i] + " is still reachable", reference.get());
+        }
+    }
+
+    private static class TestCordova implements CordovaInterface {
+
+        private final ExecutorService mThreadPool = new DirectExecutorService();
+        Activity mActivity;
+
+        TestCordova(Activity activity) {
+            mActivity = activity;
+        }
+
+        public Activity getActivity() {
+            return mActivity;
+        }
+
+        public Context getContext() {
+            return mActivity;
+        }
+
+        /**
+         * Runs the work right away on the calling thread, so the tests need not wait for it.
+         */
+        public ExecutorService getThreadPool() {
+            return mThreadPool;
+        }
+
+        public void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class TestWebView implements CordovaWebView {
+
+        private final CordovaPreferences mPreferences;
+        private final Map<String, PluginResult> mResults = new HashMap<String, PluginResult>();
+
+        TestWebView(CordovaPreferences preferences) {
+            mPreferences = preferences;
+        }
+
+        public CordovaPreferences getPreferences() {
+            return mPreferences;
+        }
+
+        public synchronized void sendPluginResult(PluginResult cr, String callbackId) {
+            mResults.put(callbackId, cr);
+        }
+
+        synchronized PluginResult getResult(String callbackId) {
+            return mResults.get(callbackId);
+        }
+
+        public Context getContext() {
+            return RuntimeEnvironment.application;
+        }
+    }
+
+    private static class DirectExecutorService extends AbstractExecutorService {
+
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<Runnable>();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that keys starting like the names of an IV or metadata are kept apart from the keys they
+ * look like, and that the strings of older versions are renamed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class FingerprintStoreNamesTest {
+
+    private static final String NAME = "FingerSPref";
+    private static final byte[] IV = new byte[16];
+
+    private FingerprintStore.PreferencesOpener mOpener;
+
+    @Before
+    public void setUp() {
+        final Map<String, SharedPreferences> files = new HashMap<String, SharedPreferences>();
+        mOpener = new FingerprintStore.PreferencesOpener() {
+            public SharedPreferences open(String name) {
+                SharedPreferences prefs = files.get(name);
+                if (prefs == null) {
+                    prefs = new InMemorySharedPreferences();
+                    files.put(name, prefs);
+                }
+                return prefs;
+            }
+        };
+    }
+
+    @Test
+    public void keepsLookalikeKeysApart() {
+        FingerprintStore store = new FingerprintStore(mOpener, NAME);
+        String[] keys = {"a", "_iva", "_metaa", "iv_a", "meta_a"};
+        for (int i = 0; i < keys.length; i++) {
+            store.put(keys[i], new byte[] {(byte) i}, IV, false, true, null, 0, true);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            assertArrayEquals(keys[i], new byte[] {(byte) i}, store.get(keys[i]).cipherText);
+        }
+        assertEquals(new HashSet<String>(Arrays.asList(keys)),
+                new HashSet<String>(store.keys()));
+    }
+
+    @Test
+    public void movesTheSingleFileOfOlderVersions() {
+        writeLegacy(mOpener.open(NAME), "a");
+
+        FingerprintStore store = new FingerprintStore(mOpener, NAME);
+
+        assertMoved(store, "a");
+        assertFalse(mOpener.open(NAME).contains("fing" + "a"));
+    }
+
+    @Test
+    public void renamesTheShardsOfOlderVersions() {
+        String key = "a";
+        int index = (key.hashCode() & 0x7fffffff) % FingerprintStore.SHARD_COUNT;
+        mOpener.open(NAME + "_index").edit()
+                .putInt("shards", FingerprintStore.SHARD_COUNT).commit();
+        writeLegacy(mOpener.open(NAME + "_" + index), key);
+
+        FingerprintStore store = new FingerprintStore(mOpener, NAME);
+
+        assertMoved(store, key);
+        assertEquals(2, mOpener.open(NAME + "_index").getInt("format", 1));
+        assertFalse(mOpener.open(NAME + "_" + index).contains("fing_iv" + key));
+    }
+
+    private static void writeLegacy(SharedPreferences prefs, String key) {
+        prefs.edit()
+                .putString("fing" + key, Base64.encodeToString(new byte[] {7}, Base64.DEFAULT))
+                .putString("fing_iv" + key, Base64.encodeToString(IV, Base64.DEFAULT))
+                .putString("fing_meta" + key, "{\"n\":true}")
+                .commit();
+    }
+
+    private static void assertMoved(FingerprintStore store, String key) {
+        FingerprintStore.Entry entry = store.get(key);
+        assertNotNull(entry);
+        assertArrayEquals(new byte[] {7}, entry.cipherText);
+        assertArrayEquals(IV, entry.iv);
+        assertFalse(entry.authRequired);
+        assertEquals(Arrays.asList(key), store.keys());
+    }
+}
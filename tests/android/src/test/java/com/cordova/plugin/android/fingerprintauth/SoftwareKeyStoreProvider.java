@@ -0,0 +1,187 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.security.keystore.KeyGenParameterSpec;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyGeneratorSpi;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Software JCA provider standing in for "AndroidKeyStore", which Robolectric does not have.
+ *
+ * Its KeyGenerator stores the generated key under the alias of the KeyGenParameterSpec, and its
+ * KeyStore hands the keys out by alias. Authentication requirements are not enforced.
+ */
+class SoftwareKeyStoreProvider extends Provider {
+
+    static final String NAME = "AndroidKeyStore";
+
+    private static final Map<String, Key> sKeys = new ConcurrentHashMap<String, Key>();
+
+    private SoftwareKeyStoreProvider() {
+        super(NAME, 1.0, "Software stand-in for the Android Key Store");
+        putService(new Service(this, "KeyStore", NAME, SoftwareKeyStoreSpi.class.getName(),
+                null, null) {
+            @Override
+            public Object newInstance(Object constructorParameter) {
+                return new SoftwareKeyStoreSpi();
+            }
+        });
+        putService(new Service(this, "KeyGenerator", "AES",
+                SoftwareKeyGeneratorSpi.class.getName(), null, null) {
+            @Override
+            public Object newInstance(Object constructorParameter) {
+                return new SoftwareKeyGeneratorSpi();
+            }
+        });
+    }
+
+    /**
+     * Registers the provider once per JVM.
+     */
+    static synchronized void install() {
+        if (Security.getProvider(NAME) == null) {
+            Security.addProvider(new SoftwareKeyStoreProvider());
+        }
+    }
+
+    static class SoftwareKeyGeneratorSpi extends KeyGeneratorSpi {
+
+        private KeyGenParameterSpec mSpec;
+        private SecureRandom mRandom = new SecureRandom();
+
+        @Override
+        protected void engineInit(SecureRandom random) {
+            throw new UnsupportedOperationException("A KeyGenParameterSpec is required");
+        }
+
+        @Override
+        protected void engineInit(AlgorithmParameterSpec params, SecureRandom random)
+                throws InvalidAlgorithmParameterException {
+            if (!(params instanceof KeyGenParameterSpec)) {
+                throw new InvalidAlgorithmParameterException("A KeyGenParameterSpec is required");
+            }
+            mSpec = (KeyGenParameterSpec) params;
+            if (random != null) {
+                mRandom = random;
+            }
+        }
+
+        @Override
+        protected void engineInit(int keySize, SecureRandom random) {
+            throw new UnsupportedOperationException("A KeyGenParameterSpec is required");
+        }
+
+        @Override
+        protected SecretKey engineGenerateKey() {
+            byte[] material = new byte[mSpec.getKeySize() > 0 ? mSpec.getKeySize() / 8 : 32];
+            mRandom.nextBytes(material);
+            SecretKey key = new SecretKeySpec(material, "AES");
+            sKeys.put(mSpec.getKeystoreAlias(), key);
+            return key;
+        }
+    }
+
+    static class SoftwareKeyStoreSpi extends KeyStoreSpi {
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            return sKeys.get(alias);
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            sKeys.put(alias, key);
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            sKeys.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(new ArrayList<String>(sKeys.keySet()));
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return sKeys.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return sKeys.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return sKeys.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password)
+                throws NoSuchAlgorithmException {
+            if (stream != null) {
+                throw new NoSuchAlgorithmException("Only load(null) is supported");
+            }
+        }
+    }
+}
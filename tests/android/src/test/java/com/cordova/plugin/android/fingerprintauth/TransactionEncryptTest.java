@@ -0,0 +1,112 @@
+package com.cordova.plugin.android.fingerprintauth;
+
+import android.util.Base64;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the values of a transaction decrypt on their own, each with an IV of its own that
+ * cannot be told from the cipher text of the value before it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class TransactionEncryptTest {
+
+    private static final String[] VALUES =
+            {"a", "exactly sixteen!", "", "a longer value, past a block"};
+
+    private SecretKey mKey;
+    private Cipher mCipher;
+
+    @BeforeClass
+    public static void installProviders() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] material = new byte[32];
+        new SecureRandom().nextBytes(material);
+        mKey = new SecretKeySpec(material, "AES");
+        mCipher = FingerprintAuthAux.createCipher();
+    }
+
+    @Test
+    public void encryptsWithOnePromptedCipher() throws Exception {
+        FingerprintStore.Transaction transaction = stage();
+        mCipher.init(Cipher.ENCRYPT_MODE, mKey);
+        byte[] firstIv = mCipher.getIV();
+        transaction.encrypt(mCipher);
+
+        JSONArray ops = transaction.toJournal();
+        assertArrayEquals(firstIv, Base64.decode(ops.getJSONObject(0).getString("i"),
+                Base64.DEFAULT));
+        assertDecryptable(ops);
+    }
+
+    @Test
+    public void encryptsEachValueWithTheKey() throws Exception {
+        FingerprintStore.Transaction transaction = stage();
+        transaction.encrypt(mCipher, mKey);
+
+        assertDecryptable(transaction.toJournal());
+    }
+
+    private static FingerprintStore.Transaction stage() {
+        FingerprintStore.Transaction transaction = new FingerprintStore.Transaction(null, true);
+        for (int i = 0; i < VALUES.length; i++) {
+            transaction.put("key" + i, VALUES[i].getBytes(), false, 0);
+        }
+        return transaction;
+    }
+
+    /**
+     * Decrypts every value on its own, and checks no IV is reused or is the last cipher text
+     * block of the value before, as it would be if the values were chained.
+     */
+    private void assertDecryptable(JSONArray ops) throws Exception {
+        assertEquals(VALUES.length, ops.length());
+        Set<String> ivs = new HashSet<String>();
+        byte[] previousCipherText = null;
+        for (int i = 0; i < ops.length(); i++) {
+            JSONObject op = ops.getJSONObject(i);
+            byte[] cipherText = Base64.decode(op.getString("v"), Base64.DEFAULT);
+            byte[] iv = Base64.decode(op.getString("i"), Base64.DEFAULT);
+            assertTrue("IV reused", ivs.add(op.getString("i")));
+            if (previousCipherText != null) {
+                int blockSize = mCipher.getBlockSize();
+                assertFalse("IV chained from the value before", Arrays.equals(iv,
+                        Arrays.copyOfRange(previousCipherText,
+                                previousCipherText.length - blockSize,
+                                previousCipherText.length)));
+            }
+            mCipher.init(Cipher.DECRYPT_MODE, mKey, new IvParameterSpec(iv));
+            assertEquals(VALUES[i], new String(mCipher.doFinal(cipherText)));
+            previousCipherText = cipherText;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.cordova.plugin.android.fingerprintauth.tests;
+
+/**
+ * Resource ids of the test app, for the plugin's resources in res/android.
+ *
+ * In an app aapt generates this class. Robolectric 3.8 only gives ids to the resources of an app
+ * that its R class lists, so the ones the plugin looks up by name have to be listed here.
+ */
+public final class R {
+
+    public static final class color {
+        public static final int kc_hint_color = 0x7f010000;
+        public static final int kc_success_color = 0x7f010001;
+        public static final int kc_warning_color = 0x7f010002;
+    }
+
+    public static final class drawable {
+        public static final int android_robot = 0x7f020000;
+        public static final int ic_fingerprint_error = 0x7f020001;
+        public static final int ic_fingerprint_success = 0x7f020002;
+        public static final int ic_fp_40px = 0x7f020003;
+    }
+
+    public static final class id {
+        public static final int button = 0x7f030000;
+        public static final int cancel_button = 0x7f030001;
+        public static final int fingerprint_container = 0x7f030002;
+        public static final int fingerprint_description = 0x7f030003;
+        public static final int fingerprint_icon = 0x7f030004;
+        public static final int fingerprint_status = 0x7f030005;
+        public static final int spacer = 0x7f030006;
+    }
+
+    public static final class layout {
+        public static final int fingerprint_dialog_container = 0x7f040000;
+        public static final int fingerprint_dialog_content = 0x7f040001;
+    }
+
+    public static final class string {
+        public static final int cancel = 0x7f050000;
+        public static final int fingerprint_auth_dialog_title = 0x7f050001;
+        public static final int fingerprint_description = 0x7f050002;
+        public static final int fingerprint_hint = 0x7f050003;
+        public static final int fingerprint_not_recognized = 0x7f050004;
+        public static final int fingerprint_success = 0x7f050005;
+        public static final int new_fingerprint_enrolled_description = 0x7f050006;
+        public static final int ok = 0x7f050007;
+        public static final int use_backup = 0x7f050008;
+    }
+
+    private R() {
+    }
+}
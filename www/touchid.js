@@ -21,6 +21,9 @@ var touchid = {
     USER_CANCELED : "-8",
     AUTHENTICATION_FAILED : "-9",
     BIOMETRIC_LOCKED_OUT : "-10",
+    TIMEOUT : "-11",
+    APP_CANCELED : "-12",
+    KEY_REQUIRES_AUTHENTICATION : "-16",
     USER_FALLBACK  : "-20"
   },
 
@@ -68,6 +71,9 @@ var touchid = {
    *    ErrorCodes.GENERIC_ERROR (-3)               Generic Error
    *    ErrorCodes.BIOMETRIC_LOCKED_OUT (-10)       Biometric sensor is locked out
    *
+   * On Android a locked out error carries ext.permanent and ext.remainingMillis, the remaining
+   * cooldown before the sensor is tried again.
+   *
    */
 	isAvailable: function(successCallback, errorCallback){
 		exec(successCallback, errorCallback, "TouchID", "isAvailable", []);
@@ -95,13 +101,25 @@ var touchid = {
    * @param  {boolean}                      userAuthenticationRequired  for future use (always true)
    * @param  {module:touchid.saveSuccess}   successCallback             callback for success
    * @param  {module:touchid.saveFail}      errorCallback               callback for fail
+   * @param  {String}                       [keyGroup]                  Android only: the key group
+   *                                                                    whose key encrypts the value
+   * @param  {Number}                       [ttlMillis]                 Android only: the value
+   *                                                                    expires this long after
+   *                                                                    the call; has and verify
+   *                                                                    treat it as missing then
+   * @param  {boolean}                      [compress]                  Android only: true to
+   *                                                                    compress the value before
+   *                                                                    encrypting it; off by
+   *                                                                    default, as the stored size
+   *                                                                    then tells about the value
    *
    * Possible error codes:
    *    ErrorCodes.VALUE_COULD_NOT_BE_SAVED (-5)     The value could not be deleted
    *
    */
-	save: function(key,value, userAuthenticationRequired, successCallback, errorCallback) {
-		exec(successCallback, errorCallback, "TouchID", "save", [key,value, userAuthenticationRequired]);
+	save: function(key,value, userAuthenticationRequired, successCallback, errorCallback, keyGroup, ttlMillis, compress) {
+		exec(successCallback, errorCallback, "TouchID", "save", [key,value, userAuthenticationRequired, keyGroup || null, ttlMillis || 0,
+			compress === true]);
 	},
 
   // ==========================================================================================================================================
@@ -123,8 +141,11 @@ var touchid = {
    * Get a value for the given key with fingerprint authorization
    *
    * @param  {String}                         key               the key
+   * @param  {String}                         message           the message shown in the dialog
    * @param  {module:touchid.verifySuccess}   successCallback    callback for success
    * @param  {module:touchid.verifyFail}      errorCallback      callback for fail
+   * @param  {number}                         [timeoutMillis]    Android only: how long to wait
+   *                                                             for a finger
    *
    * Possible error codes:
    *    ErrorCodes.KEY_NOT_FOUND (-7)               Key not found
@@ -133,10 +154,46 @@ var touchid = {
    *    ErrorCodes.AUTHENTICATION_FAILED (-9)       Authentication failed
    *    ErrorCodes.BIOMETRIC_LOCKED_OUT (-10)       Biometric sensor is locked out
    *    ErrorCodes.USER_FALLBACK (-20)              Canceled by user for fallback authentication
+   *    ErrorCodes.TIMEOUT (-11)                    No finger accepted within timeoutMillis (Android)
+   *    ErrorCodes.APP_CANCELED (-12)               Canceled with cancel() (Android)
+   *
+   * On Android verify fails right away with BIOMETRIC_LOCKED_OUT while a previous lockout is
+   * still cooling down; ext.remainingMillis tells how long is left.
+   *
+   * Concurrent verify calls for the same key share one prompt and all receive its result; calls
+   * for other keys wait until the current prompt is done.
+   *
+   */
+	verify: function(key,message,successCallback, errorCallback, timeoutMillis){
+		exec(successCallback, errorCallback, "TouchID", "verify", [key,message,timeoutMillis || 0]);
+	},
+
+  /**
+   * Android only. Closes the fingerprint prompt showing and drops the ones waiting for it; their
+   * calls fail with ErrorCodes.APP_CANCELED (-12).
+   *
+   * @param  {Function}   successCallback    gets the number of prompts ended
+   * @param  {Function}   errorCallback      callback for fail
+   */
+	cancel: function(successCallback, errorCallback){
+		exec(successCallback, errorCallback, "TouchID", "cancel", []);
+	},
+
+  /**
+   * Android only. Loads the key and initializes the cipher for the given key ahead of time, e.g.
+   * when the login screen appears, so a verify for the same key within the next 30 seconds only
+   * has to show the dialog.
+   *
+   * @param  {String}     key                the key
+   * @param  {Function}   successCallback    callback once the cipher is ready
+   * @param  {Function}   errorCallback      callback for fail
+   *
+   * Possible error codes:
+   *    ErrorCodes.KEY_NOT_FOUND (-7)               Key not found
    *
    */
-	verify: function(key,message,successCallback, errorCallback){
-		exec(successCallback, errorCallback, "TouchID", "verify", [key,message]);
+	prepareVerify: function(key,successCallback, errorCallback){
+		exec(successCallback, errorCallback, "TouchID", "prepareVerify", [key]);
 	},
 
   // ==========================================================================================================================================
@@ -192,6 +249,94 @@ var touchid = {
   delete: function(key,successCallback, errorCallback){
 		exec(successCallback, errorCallback, "TouchID", "delete", [key]);
 	},
+
+  /**
+   * Android only. Deletes the values for the given keys, with one write per storage file
+   * instead of one per key. They are all deleted or none, even if the app is killed halfway.
+   *
+   * @param  {String[]}   keys               the keys
+   * @param  {Function}   successCallback    gets the number of values deleted
+   */
+  deleteMany: function(keys, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "deleteMany", [keys]);
+  },
+
+  /**
+   * Android only. Deletes the values whose keys start with the given prefix, e.g. the ones of an
+   * account on logout, as deleteMany does. Listing the keys reads every storage file.
+   *
+   * @param  {String}     prefix             the prefix
+   * @param  {Function}   successCallback    gets the number of values deleted
+   */
+  deleteByPrefix: function(prefix, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "deleteByPrefix", [prefix]);
+  },
+
+  /**
+   * Android only. Saves and deletes several values at once: they are all written or none is, with
+   * one write per storage file, and the values to save are encrypted together, so a key that needs
+   * the fingerprint asks for it once. A key given twice takes its last operation.
+   *
+   * @param  {Object[]}   ops                         {op: "save", key, value, ttlMillis, compress}
+   *                                                  or {op: "delete", key}
+   * @param  {boolean}    userAuthenticationRequired  as for save, true if not set
+   * @param  {Function}   successCallback             gets the number of keys written
+   * @param  {Function}   errorCallback               callback for fail
+   * @param  {String}     [keyGroup]                  the key group whose key encrypts the values
+   */
+  transact: function(ops, userAuthenticationRequired, successCallback, errorCallback, keyGroup){
+    exec(successCallback, errorCallback, "TouchID", "transact",
+        [ops, userAuthenticationRequired, keyGroup || null]);
+  },
+
+  /**
+   * Android only. Reads many values without a prompt, e.g. to fill a cache at startup. Only values
+   * saved with userAuthenticationRequired false can be read, and those saved by versions before
+   * readAll have to be saved again first; they are decrypted in parallel.
+   * Large reads arrive in parts of up to 100 values, each with more: true but the last.
+   *
+   * @param  {String[]|String}  keys             the keys, or a prefix of the keys to read
+   * @param  {Function}         successCallback  gets {values: {key: value}, more: true} for each
+   *                                             part, and {values, missing, skipped, failed} at
+   *                                             the end: the keys not saved or expired, the ones
+   *                                             that need the fingerprint, and the ones that
+   *                                             could not be decrypted
+   */
+  readAll: function(keys, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "readAll", [keys]);
+  },
+
+  /**
+   * Android only. Writes the saved values to a file or content uri, encrypted with a transfer key
+   * derived from options.password, or with options.transferKey (32 bytes in Base64), so they can
+   * be moved to another device. The file is written in chunks as the values are read. Values saved
+   * with userAuthenticationRequired cannot be read without a prompt: the export fails, with their
+   * number in the message, unless options.skipAuthRequired is true, which leaves them out. A failed
+   * export deletes what it wrote.
+   *
+   * @param  {Object}     options            {uri, password} or {uri, transferKey}, and optionally
+   *                                         skipAuthRequired
+   * @param  {Function}   successCallback    gets {progress: {done}} after each chunk, and
+   *                                         {exported, skipped} at the end
+   */
+  exportStore: function(options, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "exportStore", [options]);
+  },
+
+  /**
+   * Android only. Saves the values of a backup written by exportStore, encrypted with the key of
+   * options.keyGroup, whose key must exist and not require authentication. Values that are saved
+   * already are replaced, unless options.overwrite is false. Values that expired since the backup
+   * was written are left out.
+   *
+   * @param  {Object}     options            {uri, password} or {uri, transferKey}, and optionally
+   *                                         keyGroup and overwrite
+   * @param  {Function}   successCallback    gets {progress: {done}} after each chunk, and
+   *                                         {imported, kept} at the end
+   */
+  importStore: function(options, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "importStore", [options]);
+  },
 	setLocale: function(locale,successCallback, errorCallback){
 		exec(successCallback, errorCallback, "TouchID", "setLocale", [locale]);
 	},
@@ -199,6 +344,147 @@ var touchid = {
     	exec(successCallback, errorCallback, "TouchID", "move", [key,packageName]);
   },
 
+  /**
+   * Android only. Turns recording of the plugin's internal stages (bridge entry, key store load,
+   * cipher init, dialog shown, sensor armed, auth result, storage write) on or off.
+   *
+   * @param  {boolean}    enabled            true to record
+   */
+  setTraceEnabled: function(enabled, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "setTraceEnabled", [enabled]);
+  },
+
+  /**
+   * Android only. Returns the last recorded stages as
+   * {enabled, dropped, entries: [[stage, startMicros, durationMicros, code, detail], ...]}.
+   *
+   * @param  {boolean}    clear              true to empty the buffer after reading it
+   */
+  getTrace: function(clear, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "getTrace", [clear]);
+  },
+
+  /**
+   * Android only. Returns success/failure counters and latency histograms (in microseconds) per
+   * action (save, verify, has, delete, deleteMany, deleteByPrefix, move, transact, readAll) and per
+   * stage (keystore, crypto, storage, userWait, compression), plus counters per error and per
+   * cipher initialization result, and the sizes of the values compression was tried on as
+   * {values, compressed, rawBytes, storedBytes}. Other calls, such as isAvailable and
+   * biometricType, are not recorded.
+   */
+  getMetrics: function(successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "getMetrics", []);
+  },
+
+  /**
+   * Android only. Resets all counters and histograms returned by getMetrics.
+   */
+  resetMetrics: function(successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "resetMetrics", []);
+  },
+
+  /**
+   * Android only. Creates a throwaway key in each security tier ("strongBox" and "tee") and times
+   * a small encrypt and decrypt with it. Returns {tiers: [{tier, available, level, encryptMicros,
+   * decryptMicros}, ...]}, where level is where the key actually lived ("strongBox", "tee" or
+   * "software"). Takes up to a few seconds.
+   */
+  probeSecurityTiers: function(successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "probeSecurityTiers", []);
+  },
+
+  /**
+   * Android only. Sets the security tier ("strongBox" or "tee", the default) of the key of a key
+   * group. It applies when the group's key is created by its first save; without StrongBox the
+   * key goes to the TEE.
+   *
+   * @param  {String}     keyGroup           the key group
+   * @param  {String}     tier               "strongBox" or "tee"
+   */
+  setKeyGroupTier: function(keyGroup, tier, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "setKeyGroupTier", [keyGroup, tier]);
+  },
+
+  /**
+   * Android only. Returns {group, requestedTier, tier, level, encryptMicros, decryptMicros,
+   * rotation}: once the group's key exists, the tier it was created in, where it lives and the
+   * latencies last measured for that tier by probeSecurityTiers, and the status of its rotation
+   * as described for rotateKey.
+   *
+   * @param  {String}     keyGroup           the key group, or null for the default one
+   */
+  getKeyGroupInfo: function(keyGroup, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "getKeyGroupInfo", [keyGroup]);
+  },
+
+  /**
+   * Android only. Moves the key group to a new version of its key. New values are encrypted with
+   * it right away; the saved ones are re-encrypted in the background, and the old key is deleted
+   * once none is left. Calling it again while a rotation is not done resumes it.
+   *
+   * A key that requires authentication for every use cannot be read without a prompt, so it is
+   * not rotated: the call fails with ErrorCodes.KEY_REQUIRES_AUTHENTICATION (-16). If a batch
+   * fails, the rotation stops with failed set in its status and a "rotationFailed" event, until
+   * it is called again or the app restarts.
+   *
+   * @param  {String}     keyGroup           the key group, or null for the default one
+   * @param  {Function}   successCallback    gets {version, rotating, remaining, background,
+   *                                         failed}
+   */
+  rotateKey: function(keyGroup, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "rotateKey", [keyGroup || null]);
+  },
+
+  /**
+   * Android only. Calls eventCallback with {type, code, message, timeMillis} as soon as the
+   * sensor reports something, without waiting for the dialog: type is "armed" (listening for a
+   * finger), "help" (e.g. partial finger), "failed" (finger not recognized), "success" or
+   * "error", or "rotationFailed" with the keyGroup whose rotation stopped (see rotateKey).
+   * timeMillis is the device uptime at which it happened. A new subscription replaces the
+   * previous one.
+   *
+   * @param  {Function}   eventCallback      called for every event
+   * @param  {Function}   errorCallback      callback for fail
+   */
+  subscribeEvents: function(eventCallback, errorCallback){
+    exec(eventCallback, errorCallback, "TouchID", "subscribeEvents", []);
+  },
+
+  /**
+   * Android only. Stops the events started with subscribeEvents.
+   */
+  unsubscribeEvents: function(successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "unsubscribeEvents", []);
+  },
+
+  /**
+   * Android only, with the simulated sensor selected by the TouchIDSimulatedSensor preference.
+   * Replaces the script the sensor plays back, e.g. "fail:300,help:200,success:400".
+   *
+   * @param  {String}     script             comma separated steps: success, fail, help, error,
+   *                                         lockout or lockoutPermanent, each with an optional
+   *                                         delay in milliseconds
+   */
+  setSimulatedSensor: function(script, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "setSimulatedSensor", [script]);
+  },
+
+  /**
+   * Android only, with the simulated sensor. Fires a random mix of save, verify, has and delete
+   * calls with up to options.concurrency of them outstanding, and returns
+   * {completed, operations, concurrency, elapsedMillis, throughput, actions} where actions holds
+   * success/failure counters and a latency histogram (in microseconds) per action. The calls do
+   * not go through the bridge, so do not call the plugin until it returns. It fails if a prompt, a
+   * transaction or another load test is in progress.
+   *
+   * @param  {Object}     options            optional: operations (200), concurrency (4), keys (8),
+   *                                         valueSize (32), authRequired (false), seed, and mix,
+   *                                         e.g. {save: 1, verify: 1, has: 4, delete: 1}
+   */
+  runLoadTest: function(options, successCallback, errorCallback){
+    exec(successCallback, errorCallback, "TouchID", "runLoadTest", [options]);
+  },
+
   // ==========================================================================================================================================
 
 